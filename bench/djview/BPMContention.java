@@ -0,0 +1,148 @@
+package djview;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Hammers a BeatModel's tempo from many threads at once and checks that no
+update is lost and nothing is left on a stale tempo:
+
+1. Every thread calls adjustBPM(+1) as often as it can. The final tempo has
+   to be the start plus all of them.
+2. Every thread mixes adjustBPM(+1), adjustBPM(-1) and setBPM(random). The
+   scheduler has to end up on the model's final tempo.
+3. Like 2, for a second, with a BPM notification interval set. There may be
+   no more notifications than the interval allows, and the last one has to
+   see the final tempo.
+
+The model plays during 2 and 3 (not at the hundreds of thousands of BPM 1
+ends up at), so the beat thread reads the tempo too.
+
+    ant bench-bpm -Dbpm.args="8 5000000 20"
+
+Arguments: threads, updates per thread and the notification interval in
+milliseconds. Exits with 1 if any check fails.
+*/
+public class BPMContention {
+    static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int interval = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        BeatModel model = new BeatModel();
+
+        int start = model.getBPM();
+        long nanos = hammer(threads, updates, (random, i) -> model.adjustBPM(1));
+        check(model.getBPM() == start + threads * updates, "adjustBPM: %d, expected %d",
+                model.getBPM(), start + threads * updates);
+        report("adjustBPM(+1)", threads * (long)updates, nanos);
+
+        model.on(); // Back at 90
+
+        nanos = hammer(threads, updates, (random, i) -> mixed(model, random, i));
+        checkScheduler(model);
+        report("mixed", threads * (long)updates, nanos);
+
+        AtomicLong notified = new AtomicLong();
+        int[] lastSeen = new int[1];
+        model.setBPMNotifyInterval(interval);
+        model.registerObserver((BPMObserver)() -> {
+            notified.incrementAndGet();
+            lastSeen[0] = model.getBPM();
+        });
+        long end = System.nanoTime() + 1_000_000_000L;
+        nanos = hammer(threads, Integer.MAX_VALUE, (random, i) -> {
+            if (System.nanoTime() > end) {
+                throw new Done();
+            }
+            mixed(model, random, i);
+        });
+        Thread.sleep(2L * interval); // For the trailing notification
+        checkScheduler(model);
+        long allowed = nanos / (interval * 1_000_000L) + 2;
+        check(notified.get() <= allowed, "%d notifications, at most %d expected",
+                notified.get(), allowed);
+        check(lastSeen[0] == model.getBPM(), "last notification saw %d, the tempo is %d",
+                lastSeen[0], model.getBPM());
+        System.out.printf("coalesced: %d notifications in %.0fms with a %dms interval%n",
+                notified.get(), nanos / 1e6, interval);
+
+        model.off();
+        System.out.println(failures == 0 ? "OK" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    interface Update {
+        void run(Random random, int i);
+    }
+
+    static class Done extends RuntimeException {
+    }
+
+    static void mixed(BeatModel model, Random random, int i) {
+        switch (i % 3) {
+            case 0:
+                model.adjustBPM(1);
+                break;
+            case 1:
+                model.adjustBPM(-1);
+                break;
+            default:
+                model.setBPM(60 + random.nextInt(200));
+        }
+    }
+
+    // Runs the update `updates` times on each thread, all starting at once.
+    // Returns how long it took.
+    static long hammer(int threads, int updates, Update update) throws Exception {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    for (int i = 0; i < updates; i++) {
+                        update.run(random, i);
+                    }
+                } catch (Done | InterruptedException ex) {
+                    // Time's up
+                }
+            });
+            workers[t].start();
+        }
+        ready.await();
+        long started = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - started;
+    }
+
+    static void checkScheduler(BeatModel model) {
+        long period;
+        synchronized (model.scheduler) {
+            period = model.scheduler.period;
+        }
+        check(period == BeatScheduler.periodOf(model.getBPM()),
+                "scheduler at %dns, the tempo %d is %dns", period, model.getBPM(),
+                BeatScheduler.periodOf(model.getBPM()));
+    }
+
+    static void report(String name, long updates, long nanos) {
+        System.out.printf("%-14s %d updates in %.0fms (%.0fns each)%n", name, updates,
+                nanos / 1e6, (double)nanos / updates);
+    }
+
+    static void check(boolean ok, String format, Object... args) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + String.format(format, args));
+        }
+    }
+}
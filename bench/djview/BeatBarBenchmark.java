@@ -0,0 +1,60 @@
+package djview;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Cost of animating a BeatBar: one decay step (setValue + repaint request) and
+painting the bar through the look and feel into an offscreen image. Runs with
+a headless toolkit, so no display is needed.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BeatBarBenchmark {
+    BeatBar bar;
+    BufferedImage image;
+    Graphics2D graphics;
+
+    @Setup
+    public void setup() {
+        bar = new BeatBar();
+        bar.setSize(100, 20);
+        image = new BufferedImage(100, 20, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public boolean tick() {
+        if (bar.getValue() == 0) {
+            bar.setValue(100);
+        }
+        return bar.tick();
+    }
+
+    @Benchmark
+    public void paint() {
+        bar.setValue(bar.getValue() == 100 ? 50 : 100);
+        bar.paint(graphics);
+    }
+}
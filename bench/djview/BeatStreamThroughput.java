@@ -0,0 +1,124 @@
+package djview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Measures how many beats per second the model can publish through its
+BeatPublisher, and what a fast subscriber gets, first alone and then sharing
+the publisher with slow ones (one per overflow strategy). If the slow
+subscribers held anything up, the second run would publish and deliver less.
+
+    ant bench-stream -Dstream.args="5 8"
+
+Arguments: seconds per run and the number of slow subscribers per overflow
+strategy. The beats are published as fast as the beat thread can go, which
+is far more than a real tempo ever needs.
+*/
+public class BeatStreamThroughput {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int slow = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor();
+        run("fast alone", seconds, 0, clock);
+        run("fast + " + slow * 3 + " slow", seconds, slow, clock);
+        clock.shutdownNow();
+    }
+
+    static void run(String name, int seconds, int slow, ScheduledExecutorService clock)
+            throws Exception {
+        BeatModel model = new BeatModel();
+        BeatPublisher<Long> beats = model.getBeatPublisher();
+
+        Counter fast = new Counter(null);
+        beats.subscribe(fast, 1024, BeatPublisher.Overflow.DROP_OLDEST);
+        List<Counter> slowOnes = new ArrayList<>();
+        for (int i = 0; i < slow; i++) {
+            for (BeatPublisher.Overflow overflow : BeatPublisher.Overflow.values()) {
+                Counter s = new Counter(clock);
+                slowOnes.add(s);
+                beats.subscribe(s, 16, overflow);
+            }
+        }
+        Thread.sleep(100); // Let everyone subscribe
+
+        long published = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                model.notifyBeatObservers();
+            }
+            published += 1000;
+        }
+        Thread.sleep(100); // Let the fast subscriber catch up
+        beats.close();
+
+        System.out.printf("%s: %.2fM beats/s published (%.0fns per subscriber), "
+                + "fast subscriber got %.1f%% (avg latency %.1fus)%n",
+                name, published / (seconds * 1e6),
+                seconds * 1e9 / published / (1 + slowOnes.size()),
+                100.0 * fast.received.get() / published, fast.averageLatency() / 1e3);
+        long received = 0;
+        long errors = 0;
+        for (Counter s : slowOnes) {
+            received += s.received.get();
+            errors += s.failed ? 1 : 0;
+        }
+        if (!slowOnes.isEmpty()) {
+            System.out.printf("  slow subscribers got %d beats each on average, "
+                    + "%d of %d stopped by ERROR overflow%n",
+                    received / slowOnes.size(), errors, slow);
+        }
+    }
+
+    /*
+    Counts what it gets. Without a clock it asks for everything up front; with
+    one it asks for one item at a time, a millisecond after the previous one,
+    like a consumer that needs 1ms per item.
+    */
+    static class Counter implements Flow.Subscriber<Long> {
+        final ScheduledExecutorService clock;
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong latency = new AtomicLong();
+        Flow.Subscription subscription;
+        volatile boolean failed;
+
+        Counter(ScheduledExecutorService clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(clock == null ? Long.MAX_VALUE : 1);
+        }
+
+        @Override
+        public void onNext(Long beat) {
+            latency.addAndGet(System.nanoTime() - beat);
+            received.incrementAndGet();
+            if (clock != null) {
+                clock.schedule(() -> subscription.request(1), 1, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failed = true;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        double averageLatency() {
+            return (double)latency.get() / Math.max(received.get(), 1);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package djview;
+
+import java.net.InetSocketAddress;
+
+/*
+Runs a BeatSyncMaster and a number of BeatSyncFollowers in one JVM, over the
+loopback interface, for a fixed time, and reports how far each follower's
+beat grid was from the master's beats (BeatSyncFollower.report()). Before the
+master, the master's model gets an observer that keeps the beat thread busy,
+the way a slow view would; that must not show up in the phase error.
+
+Then one follower goes away without saying BYE, and the master must drop it
+after BeatSyncMaster.MISSED_PINGS ping intervals.
+
+    ant bench-sync -Dsync.args="4 30 120 1000 1.0"
+
+Arguments: followers, seconds, BPM, microseconds the busy observer takes per
+beat, and the largest phase error allowed, in milliseconds. The statistics
+start after WARMUP_MILLIS, once the followers had time to estimate the clock
+offset and lock on. Exits with 1 if a follower's phase error was larger than
+allowed, it got fewer than half of the beats, or the silent follower wasn't
+dropped.
+*/
+public class BeatSyncAccuracy {
+    static final int WARMUP_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int bpm = args.length > 2 ? Integer.parseInt(args[2]) : 120;
+        long busyNanos = (args.length > 3 ? Long.parseLong(args[3]) : 1000) * 1000;
+        double boundMillis = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+
+        BeatModel model = new BeatModel();
+        model.registerObserver((BeatObserver)() -> {
+            long end = System.nanoTime() + busyNanos;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        });
+        BeatSyncMaster master = new BeatSyncMaster(model, 0);
+        InetSocketAddress address = new InetSocketAddress("localhost",
+                master.socket.getLocalPort());
+        model.on();
+        model.setBPM(bpm);
+        BeatSyncFollower[] followers = new BeatSyncFollower[count];
+        for (int i = 0; i < count; i++) {
+            BeatModel local = new BeatModel();
+            followers[i] = new BeatSyncFollower(local, address);
+            local.on();
+        }
+
+        Thread.sleep(WARMUP_MILLIS);
+        for (BeatSyncFollower follower : followers) {
+            follower.errors.reset();
+        }
+        Thread.sleep(seconds * 1000L);
+        long beats = Math.round(bpm / 60.0 * seconds);
+        boolean ok = true;
+        for (int i = 0; i < count; i++) {
+            RunningStats errors = followers[i].errors;
+            boolean good = errors.getMaxAbs() <= boundMillis * 1e6
+                    && errors.getCount() >= beats / 2;
+            System.out.printf("follower %d: %s  %s%n", i, followers[i].report(),
+                    good ? "ok" : "FAILED");
+            ok &= good;
+        }
+        System.out.printf("%d followers at %d BPM, %d beats expected, busy observer %dus, "
+                + "phase error allowed %.3fms%n", count, bpm, beats, busyNanos / 1000,
+                boundMillis);
+
+        // Gone without a BYE
+        followers[0].socket.close();
+        followers[0].model.off();
+        long closed = System.nanoTime();
+        while (master.getFollowerCount() == count
+                && System.nanoTime() - closed < 2 * BeatSyncMaster.EXPIRY_NANOS) {
+            Thread.sleep(10);
+        }
+        boolean dropped = master.getFollowerCount() == count - 1;
+        System.out.printf("silent follower %s after %.1fs (%d missed pings allowed)%n",
+                dropped ? "dropped" : "NOT dropped", (System.nanoTime() - closed) / 1e9,
+                BeatSyncMaster.MISSED_PINGS);
+        ok &= dropped;
+
+        for (int i = 1; i < count; i++) {
+            followers[i].close();
+            followers[i].model.off();
+        }
+        master.close();
+        model.off();
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,48 @@
+package djview;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Throughput of the controller's tempo methods, with one BPM observer (like the
+DJView) registered on the model. No view is created, so this runs headless.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerBenchmark {
+    BeatModel model;
+    BeatController controller;
+    int bpm;
+
+    @Setup
+    public void setup() {
+        model = new BeatModel();
+        model.registerObserver((BPMObserver)() -> bpm = model.getBPM());
+        controller = new BeatController(model, null);
+    }
+
+    @Benchmark
+    public int increaseBPM() {
+        controller.increaseBPM();
+        return bpm;
+    }
+
+    @Benchmark
+    public int setBPM() {
+        controller.setBPM(120);
+        return bpm;
+    }
+}
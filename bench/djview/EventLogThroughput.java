@@ -0,0 +1,93 @@
+package djview;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/*
+Records events into an EventRecorder log as fast as one thread can, then
+replays the log raw through an EventReplayer.Listener, and reports events
+per second for both and how many garbage collections ran in each. Every
+record carries its index as the value and a type derived from it, so the
+replay can check that each event comes back as it was written and in order.
+
+The default 9,000,000 events take 137MB, three mapped segments of
+EventRecorder.SEGMENT_SIZE, so moving the window along is part of what's
+measured.
+
+    ant bench-eventlog -Deventlog.args="9000000 /tmp/events.djlog"
+
+Arguments: number of events, and the log file to write (a temporary file,
+deleted afterwards, if none is given). Exits with 1 if the log doesn't span
+more than one segment, an event is replayed wrong or missing, or any
+garbage collection ran while recording or replaying.
+*/
+public class EventLogThroughput {
+    static final int[] TYPES = {
+        EventRecorder.BEAT, EventRecorder.BPM, EventRecorder.START, EventRecorder.STOP
+    };
+
+    // Checked by the replay listener; fields, so the listener captures nothing
+    static long replayed;
+    static long mismatches;
+    static long lastTime;
+
+    public static void main(String[] args) throws Exception {
+        long count = args.length > 0 ? Long.parseLong(args[0]) : 9_000_000L;
+        File log = args.length > 1 ? new File(args[1])
+                : File.createTempFile("eventlog", ".djlog");
+        long bytes = EventRecorder.HEADER_SIZE + count * EventRecorder.RECORD_SIZE;
+        long segments = (bytes + EventRecorder.SEGMENT_SIZE - 1) / EventRecorder.SEGMENT_SIZE;
+        System.out.printf("%d events, %.0fMB in %d segments of %dMB%n", count,
+                bytes / 1048576.0, segments, EventRecorder.SEGMENT_SIZE / 1048576);
+        boolean ok = segments > 1;
+        if (!ok) {
+            System.out.println("Too few events to cross a segment boundary.");
+        }
+
+        EventRecorder recorder = new EventRecorder(log);
+        long gcs = collections();
+        long started = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            recorder.record(TYPES[(int)(i & 3)], (int)i);
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        long recordGCs = collections() - gcs;
+        recorder.close();
+        System.out.printf("record: %,.0f events/s, %d GCs%n", count / elapsed, recordGCs);
+        ok &= recorder.getRecords() == count && recordGCs == 0;
+
+        EventReplayer replayer = new EventReplayer(log);
+        gcs = collections();
+        started = System.nanoTime();
+        long events = replayer.replay(EventLogThroughput::check, false);
+        elapsed = (System.nanoTime() - started) / 1e9;
+        long replayGCs = collections() - gcs;
+        System.out.printf("replay: %,.0f events/s, %d GCs, %d of %d events, %d wrong%n",
+                events / elapsed, replayGCs, replayed, count, mismatches);
+        ok &= events == count && replayed == count && mismatches == 0 && replayGCs == 0;
+
+        if (args.length < 2) {
+            log.delete();
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static void check(long nanos, int type, int value) {
+        if (value != (int)replayed || type != TYPES[(int)(replayed & 3)] || nanos < lastTime) {
+            mismatches++;
+        }
+        lastTime = nanos;
+        replayed++;
+    }
+
+    // Collections by all collectors so far
+    static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,153 @@
+package djview;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/*
+Compares platform and virtual beat threads: starts N models in the given
+ExecutionMode, lets them play at random tempos between 60 and 300 BPM, and
+reports memory footprint and how late the beat threads wake up.
+
+    ant bench-footprint -Dfootprint.args="ALL 1000,100000 10"
+
+Arguments: mode, numbers of models (comma separated), seconds to run. The
+mode is PLATFORM or VIRTUAL, TIMER for all models on a SharedBeatTimer with
+TIMER_THREADS threads (for comparison), or ALL for each of them. With more
+than one run, every run gets a JVM of its own, so one that runs out of
+threads doesn't spoil the others.
+
+Platform thread stacks live outside the heap, so the resident set size (RSS)
+is reported next to the heap. 100,000 platform threads usually hit the OS
+thread limit (or take forever to start, since each of them spins before its
+beats) before they get anywhere; the models that did start in
+START_LIMIT_NANOS are measured.
+Virtual threads need a Java 21+ runtime, on an older one VIRTUAL is skipped
+instead of quietly measuring platform threads again.
+*/
+public class ExecutionModeFootprint {
+    static final int TIMER_THREADS = 2;
+    static final long START_LIMIT_NANOS = 60_000_000_000L;  // For starting the models
+    static final LatencyHistogram lateness = new LatencyHistogram();
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "PLATFORM";
+        String[] counts = (args.length > 1 ? args[1] : "1000").split(",");
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String[] modes = mode.equals("ALL")
+                ? new String[] {"PLATFORM", "VIRTUAL", "TIMER"} : new String[] {mode};
+        if (modes.length == 1 && counts.length == 1) {
+            run(mode, Integer.parseInt(counts[0]), seconds);
+            System.exit(0);
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        for (String count : counts) {
+            for (String m : modes) {
+                new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ExecutionModeFootprint.class.getName(), m, count,
+                        Integer.toString(seconds)).inheritIO().start().waitFor();
+                System.out.println();
+            }
+        }
+        System.exit(0);
+    }
+
+    static void run(String mode, int count, int seconds) throws Exception {
+        System.out.println("mode:    " + mode + ", models: " + count);
+        SharedBeatTimer timer = null;
+        ExecutionMode execution = ExecutionMode.PLATFORM;
+        if (mode.equals("TIMER")) {
+            timer = new SharedBeatTimer(TIMER_THREADS);
+        } else {
+            execution = ExecutionMode.valueOf(mode);
+            if (!execution.isSupported()) {
+                System.out.println("skipped: " + mode + " threads need Java 21+, this is "
+                        + System.getProperty("java.version"));
+                return;
+            }
+        }
+
+        long heapBefore = usedHeap();
+        long rssBefore = rss();
+        Random random = new Random(42);
+        BeatModel[] models = new BeatModel[count];
+        int started = 0;
+        long bpms = 0;      // Of all models, for the beats expected per minute
+        long startedAt = System.nanoTime();
+        try {
+            for (; started < count; started++) {
+                if (System.nanoTime() - startedAt > START_LIMIT_NANOS) {
+                    System.out.println("stopped: only " + started + " models started in "
+                            + START_LIMIT_NANOS / 1_000_000_000L + "s");
+                    break;
+                }
+                BeatModel model = new BeatModel();
+                model.setExecutionMode(execution);
+                model.setTimer(timer);
+                model.registerObserver((BeatObserver)() -> record(model));
+                models[started] = model;
+                model.on();
+                int bpm = 60 + random.nextInt(241);
+                model.setBPM(bpm);
+                bpms += bpm;
+            }
+        } catch (OutOfMemoryError ex) {
+            if (models[started] != null) {
+                models[started].off();
+            }
+            System.out.println("stopped: " + ex.getMessage() + " after " + started + " models");
+        }
+        System.out.printf("start:   %.0fms%n", (System.nanoTime() - startedAt) / 1e6);
+        lateness.reset();   // Only the steady state counts
+        long measuring = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        String late = lateness.toString();
+        long beats = lateness.getCount();
+        double elapsed = (System.nanoTime() - measuring) / 1e9;
+
+        long heap = usedHeap() - heapBefore;
+        long rss = rss() - rssBefore;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (int i = 0; i < started; i++) {
+            models[i].off();
+        }
+
+        int n = Math.max(started, 1);
+        System.out.println("heap:    " + heap / 1024 + " KB (" + heap / n + " bytes/model)");
+        System.out.println("rss:     " + (rss < 0 ? "n/a" : rss / 1024 + " KB ("
+                + rss / n + " bytes/model)"));
+        System.out.println("threads: " + threads + " platform threads");
+        System.out.printf("beats:   %d in %.1fs, %.0f expected%n", beats, elapsed,
+                bpms / 60.0 * elapsed);
+        System.out.println("late:    " + late);
+    }
+
+    // Called on the beat thread right after the beat was played
+    static void record(BeatModel model) {
+        lateness.record(System.nanoTime() - model.scheduler.due);
+    }
+
+    static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Resident set size in bytes, or -1 where /proc isn't available
+    static long rss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (Exception ex) {}
+        return -1;
+    }
+}
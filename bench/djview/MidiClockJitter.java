@@ -0,0 +1,162 @@
+package djview;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/*
+Measures how well one BeatModel follows another over MIDI clock, without any
+MIDI hardware:
+
+- loopback: a MidiClockOut on the master sends straight to a MidiClockIn on
+  the follower, through a Receiver that delays every message by a random
+  amount (in order, like a busy port would). Once with the timestamps, once
+  without, so the follower only has the time of arrival.
+- sequencer: the JDK's software sequencer plays a track of clock ticks into
+  the MidiClockIn, with its own (millisecond) timing and no timestamps.
+
+The master changes tempo every few seconds. Reported, for the second half of
+the last tempo: how late the ticks were sent, the jitter of the ticks
+received against the smoothed tempo, and how far the follower's beats are
+from the master's (the phase error).
+
+    ant bench-midi -Dmidi.args="20 2000"
+
+Arguments: seconds per run, and the largest delay in microseconds.
+*/
+public class MidiClockJitter {
+    static final int[] TEMPOS = {120, 128, 97, 140};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int delay = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        loopback(seconds, delay, true);
+        loopback(seconds, delay, false);
+        sequencer(seconds);
+        System.exit(0);
+    }
+
+    static void loopback(int seconds, int delay, boolean stamps) throws Exception {
+        BeatModel master = new BeatModel();
+        BeatModel follower = new BeatModel();
+        MidiClockIn in = new MidiClockIn(follower);
+        MidiClockOut out = new MidiClockOut(master, new DelayedReceiver(in, delay, stamps));
+        master.setMidiClock(out);
+        PhaseError phase = new PhaseError(master, follower);
+
+        master.on();
+        play(seconds, master::setBPM, () -> {
+            out.resetReport();
+            in.resetReport();
+            phase.histogram.reset();
+        });
+        master.off();
+        Thread.sleep(100);
+        System.out.printf("loopback, up to %dus late, %s:%n  out: %s%n  in:  %s%n"
+                + "  follower at %d BPM (master %d), phase error %s%n",
+                delay, stamps ? "timestamps" : "no timestamps", out.report(), in.report(),
+                follower.getBPM(), master.getBPM(), phase.histogram);
+        out.close();
+    }
+
+    static void sequencer(int seconds) throws Exception {
+        BeatModel follower = new BeatModel();
+        MidiClockIn in = new MidiClockIn(follower);
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        sequencer.open();
+        Sequence sequence = new Sequence(Sequence.PPQ, MidiClockIn.PPQN);
+        Track track = sequence.createTrack();
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.START), 0));
+        for (long tick = 0; tick < 1000L * MidiClockIn.PPQN; tick++) {
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.TIMING_CLOCK), tick));
+        }
+        sequencer.setSequence(sequence);
+        sequencer.getTransmitter().setReceiver(in);
+
+        sequencer.start();
+        play(seconds, sequencer::setTempoInBPM, in::resetReport);
+        sequencer.stop();
+        System.out.printf("sequencer:%n  in:  %s%n  follower at %d BPM (sequencer %.0f)%n",
+                in.report(), follower.getBPM(), sequencer.getTempoInBPM());
+        sequencer.close();
+        in.close();
+    }
+
+    /*
+    Goes through the TEMPOS in `seconds`. Only the second half of the last one
+    is measured, once the follower has settled.
+    */
+    static void play(int seconds, IntConsumer setTempo, Runnable reset) throws Exception {
+        long stretch = seconds * 1000L / TEMPOS.length;
+        for (int tempo : TEMPOS) {
+            setTempo.accept(tempo);
+            Thread.sleep(stretch / 2);
+            reset.run();
+            Thread.sleep(stretch / 2);
+        }
+    }
+
+    // Delivers the messages after a random delay, in order
+    static class DelayedReceiver implements Receiver {
+        final Receiver target;
+        final int maxMicros;
+        final boolean stamps;
+        final ScheduledExecutorService port = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MidiPort");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final Random random = new Random(1);
+        long last;  // When the last message is delivered
+
+        DelayedReceiver(Receiver target, int maxMicros, boolean stamps) {
+            this.target = target;
+            this.maxMicros = maxMicros;
+            this.stamps = stamps;
+        }
+
+        @Override
+        public synchronized void send(MidiMessage message, long timeStamp) {
+            long now = System.nanoTime();
+            long at = Math.max(last, now + random.nextInt(maxMicros + 1) * 1000L);
+            last = at;
+            long stamp = stamps ? timeStamp : -1;
+            port.schedule(() -> target.send(message, stamp), at - now, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void close() {
+            port.shutdown();
+        }
+    }
+
+    // How far each of the follower's beats is from the master's beat grid
+    static class PhaseError implements BeatObserver {
+        final BeatModel master;
+        final BeatModel follower;
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        PhaseError(BeatModel master, BeatModel follower) {
+            this.master = master;
+            this.follower = follower;
+            follower.registerObserver(this);
+        }
+
+        @Override
+        public void updateBeat() {
+            long period = BeatScheduler.periodOf(master.getBPM());
+            long distance = follower.scheduler.due - master.scheduler.deadline();
+            histogram.record(Math.abs(distance - Math.round((double)distance / period) * period));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package djview;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Cost of one notifyBeatObservers()/notifyBPMObservers() call for different
+numbers of registered observers. The observers only bump a counter, so this
+measures the dispatch itself and not what the observers do.
+
+The delivery is SYNC (the observers are called right there) or one of the
+AsyncObserver overflow policies, DROP or COALESCE, with every observer on its
+own queue of CAPACITY events, drained by the shared executor. For those, the
+cost is what the beat thread pays to hand the event over.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObserverBenchmark {
+    static final int CAPACITY = 16;
+
+    @Param({"1", "100", "10000"})
+    int observers;
+
+    @Param({"SYNC", "DROP", "COALESCE"})
+    String delivery;
+
+    BeatModel model;
+    int updates;
+
+    @Setup
+    public void setup() {
+        model = new BeatModel();
+        if (!delivery.equals("SYNC")) {
+            model.setAsyncDelivery(AsyncObserver.DEFAULT_EXECUTOR, CAPACITY,
+                    AsyncObserver.Overflow.valueOf(delivery));
+        }
+        for (int i = 0; i < observers; i++) {
+            model.registerObserver((BeatObserver)() -> updates++);
+            model.registerObserver((BPMObserver)() -> updates++);
+        }
+    }
+
+    @Benchmark
+    public int notifyBeatObservers() {
+        model.notifyBeatObservers();
+        return updates;
+    }
+
+    @Benchmark
+    public int notifyBPMObservers() {
+        model.notifyBPMObservers();
+        return updates;
+    }
+}
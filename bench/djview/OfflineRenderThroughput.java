@@ -0,0 +1,59 @@
+package djview;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.AudioSystem;
+
+/*
+Measures how much faster than realtime the OfflineRenderer is, for one hour
+long session (tempo changes every 30 seconds, a break every 10 minutes), both
+as a single file and as several stems in parallel.
+
+    ant bench-render -Drender.args="clap.wav 8"
+
+Arguments: the sample to render and the number of stems. Without a sample a
+generated one is used.
+*/
+public class OfflineRenderThroughput {
+    
+    public static void main(String[] args) throws Exception {
+        SampleBank bank = new SampleBank();
+        int id = bank.load(args.length > 0 && !args[0].isEmpty() ? new File(args[0])
+                : new File(SampleBankLoad.generate(1), "sample0.wav"));
+        int stems = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        
+        RenderSession session = new RenderSession();
+        for (int minute = 0; minute < 60; minute += 10) {
+            session.start(minute * 60);
+            for (int s = 0; s < 9 * 60; s += 30) {
+                session.setBPM(minute * 60 + s, 80 + (s / 30) * 7);
+            }
+            session.stop(minute * 60 + 9 * 60);
+        }
+        session.stop(3600);
+        
+        OfflineRenderer renderer = new OfflineRenderer(bank);
+        File out = File.createTempFile("render", ".wav");
+        out.deleteOnExit();
+        long started = System.nanoTime();
+        double seconds = renderer.render(session, id, out);
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        System.out.printf("1 file:   %.0fs of audio in %.2fs, %.0fx realtime, %d MB%n",
+                seconds, elapsed, seconds / elapsed, out.length() >> 20);
+        AudioSystem.getAudioInputStream(out).close(); // Is it a valid WAV?
+        
+        List<OfflineRenderer.Stem> list = new ArrayList<>();
+        for (int i = 0; i < stems; i++) {
+            File stem = File.createTempFile("stem", ".wav");
+            stem.deleteOnExit();
+            list.add(new OfflineRenderer.Stem(session, id, stem));
+        }
+        started = System.nanoTime();
+        seconds = renderer.renderStems(list);
+        elapsed = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%d stems: %.0fs of audio in %.2fs, %.0fx realtime%n",
+                stems, seconds, elapsed, seconds / elapsed);
+    }
+}
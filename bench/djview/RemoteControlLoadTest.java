@@ -0,0 +1,151 @@
+package djview;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/*
+Opens many connections to a RemoteControlServer and keeps sending commands on
+all of them, one at a time per connection, to measure the round trip from
+sending a command to reading its answer. A tenth of the connections also
+subscribe to the beat and BPM events.
+
+    ant bench-remote -Dremote.args="5000 10"
+
+Arguments: connections, seconds, and optionally host:port of a running
+server. Without one, a server with its own model is started in this JVM,
+playing at 600 BPM so there are events to push. Like the server, the client
+is a single thread with a Selector.
+*/
+public class RemoteControlLoadTest {
+    static final byte[][] COMMANDS = {ascii("+\n"), ascii("-\n")};
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        InetSocketAddress address;
+        RemoteControlServer server = null;
+        if (args.length > 2) {
+            String[] hostPort = args[2].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            BeatModel model = new BeatModel();
+            model.setBPMNotifyInterval(20); // Every command changes the tempo
+            server = new RemoteControlServer(new AbstractController(model) {}, model, 0);
+            address = new InetSocketAddress("localhost", server.getPort());
+        }
+
+        Selector selector = Selector.open();
+        Client[] clients = new Client[connections];
+        long started = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            clients[i] = new Client(channel, i % 10 == 0);
+            clients[i].sent = i; // Half start with +, half with -
+            channel.register(selector, SelectionKey.OP_READ, clients[i]);
+        }
+        System.out.printf("%d connections in %dms%n", connections,
+                (System.nanoTime() - started) / 1_000_000);
+        clients[0].send(ascii("start\n"));
+        clients[0].send(ascii("600\n")); // on() starts at 90
+
+        LatencyHistogram latency = new LatencyHistogram();
+        for (Client client : clients) {
+            client.next();
+        }
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long warmup = System.nanoTime() + 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                Client client = (Client)keys.next().attachment();
+                keys.remove();
+                client.read(latency);
+            }
+            if (warmup != 0 && System.nanoTime() > warmup) {
+                latency.reset(); // Only count the steady state
+                for (Client client : clients) {
+                    client.events = 0;
+                }
+                warmup = 0;
+                end = System.nanoTime() + (seconds - 1) * 1_000_000_000L;
+            }
+        }
+
+        long events = 0;
+        for (Client client : clients) {
+            events += client.events;
+            client.channel.close();
+        }
+        double measured = Math.max(seconds - 1, 1);
+        System.out.printf("%.0f commands/s, round trip %s%n",
+                latency.getCount() / measured, latency);
+        System.out.printf("%.0f events/s pushed to %d subscribers%n",
+                events / measured, (connections + 9) / 10);
+        if (server != null) {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static class Client {
+        SocketChannel channel;
+        boolean subscriber;
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        int answers;        // Still to come before the next command
+        int sent;
+        long sentAt;
+        long events;
+
+        Client(SocketChannel channel, boolean subscriber) throws Exception {
+            this.channel = channel;
+            this.subscriber = subscriber;
+            if (subscriber) {
+                send(ascii("subscribe\n"));
+            }
+        }
+
+        void send(byte[] command) throws Exception {
+            answers++;
+            channel.write(ByteBuffer.wrap(command)); // A few bytes always fit
+        }
+
+        void next() throws Exception {
+            sentAt = System.nanoTime();
+            send(COMMANDS[sent++ & 1]);
+        }
+
+        void read(LatencyHistogram latency) throws Exception {
+            if (channel.read(in) < 0) {
+                throw new IllegalStateException("Server closed the connection");
+            }
+            int start = 0;
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) != '\n') {
+                    continue;
+                }
+                byte first = in.get(start);
+                start = i + 1;
+                if (first == 'b') {
+                    events++;   // "beat" or "bpm <bpm>"
+                } else if (--answers == 0) {
+                    latency.record(System.nanoTime() - sentAt);
+                    next();
+                }
+            }
+            in.limit(in.position()).position(start);
+            in.compact();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package djview;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/*
+Loads a library of WAV files into a SampleBank and reports how long it took
+and how much heap, direct and mapped memory it uses.
+
+    ant bench-samples -Dsamples.args="path/to/library"
+
+Without a directory, a library of 400 generated files is used: mostly short
+hits, with every tenth one an 8 second loop that's large enough to be mapped.
+*/
+public class SampleBankLoad {
+    
+    public static void main(String[] args) throws Exception {
+        File directory = args.length > 0 ? new File(args[0]) : generate(400);
+        
+        long heapBefore = usedHeap();
+        SampleBank bank = new SampleBank();
+        bank.loadDirectory(directory);
+        long heap = usedHeap() - heapBefore;
+        
+        System.out.println("samples: " + bank.size());
+        System.out.println("load:    " + bank.getLoadNanos() / 1000000 + "ms");
+        System.out.println("heap:    " + heap / 1024 + " KB");
+        System.out.println("direct:  " + bank.getDirectBytes() / 1024 + " KB");
+        System.out.println("mapped:  " + bank.getMappedBytes() / 1024 + " KB");
+        
+        // Lookups by id, the way the audio thread does them
+        long started = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 10_000_000; i++) {
+            sum += bank.get(i % bank.size()).get(100);
+        }
+        System.out.println("lookup:  " + (System.nanoTime() - started) / 10_000_000
+                + "ns per get() (" + sum + ")");
+    }
+    
+    static File generate(int count) throws Exception {
+        File directory = Files.createTempDirectory("samples").toFile();
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        for (int i = 0; i < count; i++) {
+            int frames = i % 10 == 0 ? 44100 * 8 : 4410;
+            byte[] data = new byte[frames * format.getFrameSize()];
+            for (int f = 0; f < frames; f++) {
+                short s = (short)(Math.sin(f * (i + 1) * 0.01) * 8000);
+                for (int c = 0; c < 2; c++) {
+                    data[4 * f + 2 * c] = (byte)s;
+                    data[4 * f + 2 * c + 1] = (byte)(s >> 8);
+                }
+            }
+            File file = new File(directory, "sample" + i + ".wav");
+            AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, frames),
+                    AudioFileFormat.Type.WAVE, file);
+            file.deleteOnExit();
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+    
+    static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
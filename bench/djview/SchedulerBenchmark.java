@@ -0,0 +1,43 @@
+package djview;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Scheduling jitter of the beat loop. Every invocation waits for one beat, the
+same way BeatModel.run() does, so in SampleTime mode the percentiles show how
+far beats stray from the period (60000 BPM = 1ms, 6000 BPM = 10ms).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+    @Param({"6000", "60000"})
+    int bpm;
+
+    BeatScheduler scheduler;
+
+    @Setup
+    public void setup() {
+        scheduler = new BeatScheduler(bpm);
+        scheduler.start();
+    }
+
+    @Benchmark
+    public boolean awaitNextBeat() {
+        return scheduler.awaitNextBeat();
+    }
+}
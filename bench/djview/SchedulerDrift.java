@@ -0,0 +1,168 @@
+package djview;
+
+import java.util.concurrent.CountDownLatch;
+
+/*
+Plays thousands of beats in real time at tempos from 60 to 300 BPM and
+measures how far they stray from where they should be: each beat against
+origin + n * 60s / BPM, with the period worked out exactly rather than in
+whole nanoseconds or milliseconds.
+
+- drift: how far the last beat is from where it should be. That's the error
+  that adds up over a set.
+- jitter: how late the beats are against their own deadline, per beat.
+
+Every tempo runs twice, in parallel: on a BeatModel, whose observer also
+burns BUSY_MICROS of CPU on every beat like a slow view would, and on the
+loop BeatModel.run() had before the BeatScheduler, Thread.sleep(60000 / BPM)
+after doing the same work.
+
+    ant bench-drift -Ddrift.args="2000 60 120 180 240 300"
+
+Arguments: beats per tempo, then the tempos. 1000 beats at 60 BPM take
+almost 17 minutes, everything runs at the same time.
+*/
+public class SchedulerDrift {
+    static final int BUSY_MICROS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int beats = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int[] tempos = {60, 120, 180, 240, 300};
+        if (args.length > 1) {
+            tempos = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                tempos[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        Run[] runs = new Run[tempos.length * 2];
+        CountDownLatch done = new CountDownLatch(runs.length);
+        for (int i = 0; i < tempos.length; i++) {
+            runs[2 * i] = new SchedulerRun(tempos[i], beats, done);
+            runs[2 * i + 1] = new SleepRun(tempos[i], beats, done);
+        }
+        for (Run run : runs) {
+            run.start();
+        }
+        done.await();
+        for (Run run : runs) {
+            System.out.println(run);
+        }
+        System.exit(0);
+    }
+
+    static void busy() {
+        long end = System.nanoTime() + BUSY_MICROS * 1000L;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    abstract static class Run {
+        final int bpm;
+        final int beats;
+        final CountDownLatch done;
+        final LatencyHistogram lateness = new LatencyHistogram();
+        long origin;
+        long played;
+        long drift;     // Of the last beat, in nanoseconds
+        final RunningStats jitter = new RunningStats();
+
+        Run(int bpm, int beats, CountDownLatch done) {
+            this.bpm = bpm;
+            this.beats = beats;
+            this.done = done;
+        }
+
+        abstract void start();
+
+        // Called on every beat. Returns false after the last one.
+        boolean beat(long now, long deadline) {
+            if (played == 0) {
+                origin = deadline;
+            }
+            drift = now - origin - Math.round(played * 60e9 / bpm);
+            long late = now - deadline;
+            lateness.record(late);
+            jitter.record(late);
+            if (++played == beats) {
+                done.countDown();
+                return false;
+            }
+            return true;
+        }
+
+        abstract String name();
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %3d BPM, %d beats: drift %8.3fms, jitter %.3fms, late %s",
+                    name(), bpm, played, drift / 1e6, jitter.getStdDev() / 1e6, lateness);
+        }
+    }
+
+    static class SchedulerRun extends Run implements BeatObserver {
+        final BeatModel model = new BeatModel();
+
+        SchedulerRun(int bpm, int beats, CountDownLatch done) {
+            super(bpm, beats, done);
+            model.registerObserver(this);
+        }
+
+        @Override
+        void start() {
+            model.on();
+            model.setBPM(bpm);
+        }
+
+        @Override
+        public void updateBeat() {
+            if (played == beats) {
+                return;
+            }
+            if (!beat(System.nanoTime(), model.scheduler.due)) {
+                model.off();
+            }
+            busy();
+        }
+
+        @Override
+        String name() {
+            return "scheduler";
+        }
+    }
+
+    static class SleepRun extends Run implements Runnable {
+        SleepRun(int bpm, int beats, CountDownLatch done) {
+            super(bpm, beats, done);
+        }
+
+        @Override
+        void start() {
+            new Thread(this, "Sleep-" + bpm).start();
+        }
+
+        // What BeatModel.run() used to do
+        @Override
+        public void run() {
+            long deadline = System.nanoTime();
+            for (;;) {
+                long now = System.nanoTime();
+                if (!beat(now, deadline)) {
+                    return;
+                }
+                busy();
+                try {
+                    Thread.sleep(60000 / bpm);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                deadline = now + 60_000_000_000L / bpm;
+            }
+        }
+
+        @Override
+        String name() {
+            return "sleep";
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package djview;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Drives thousands of BeatModels at random tempos from 60 to 300 BPM on one
+SharedBeatTimer and accounts for every beat. For each model, the beats that
+were due between on() and off() are counted from its fixed beat grid, and
+compared with:
+
+- played: how many beats its observer saw
+- dropped: beats the timer fell more than a period behind on and skipped
+  (BeatModel.getDroppedBeats())
+- lost: handed out by the scheduler, but neither played nor dropped. Must
+  be 0.
+
+The beats that were due when a model was turned off, but that the timer
+threads hadn't got to yet, are reported as pending.
+
+It also reports how late the played beats were, and how often a model's
+beat() was entered while another thread was still in it (must be 0).
+
+Then it turns TEMPO_MODELS of the models on again and changes their tempos
+at random, as fast as it can. The timer's queue must not grow with the
+number of changes, only with the number of models.
+
+    ant bench-timer -Dtimer.args="10000 2 10 0 2000000"
+
+Arguments: models, timer threads, seconds, how many microseconds of work
+each beat's observer does (more than the threads can keep up with makes them
+drop beats) and the number of tempo changes. Exits with 1 if beats were
+lost, a model was played by two threads at once or is still scheduled after
+off(), or the queue grew with the tempo changes.
+*/
+public class SharedTimerStress {
+    static final int TEMPO_MODELS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int busyMicros = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        int tempoChanges = args.length > 4 ? Integer.parseInt(args[4]) : 2_000_000;
+        SharedBeatTimer timer = new SharedBeatTimer(threads);
+        LatencyHistogram lateness = new LatencyHistogram();
+        AtomicLong overlaps = new AtomicLong();
+        Random random = new Random(1);
+        Counter[] counters = new Counter[count];
+        for (int i = 0; i < count; i++) {
+            BeatModel model = new BeatModel();
+            model.setTimer(timer);
+            counters[i] = new Counter(model, lateness, overlaps, busyMicros);
+            model.registerObserver(counters[i]);
+        }
+        long started = System.nanoTime();
+        for (Counter counter : counters) {
+            counter.model.on();
+            counter.model.setBPM(60 + random.nextInt(241));
+        }
+        System.out.printf("%d models on %d threads, started in %.0fms%n", count, threads,
+                (System.nanoTime() - started) / 1e6);
+
+        Thread.sleep(seconds * 1000L);
+        long expected = 0;
+        for (Counter counter : counters) {
+            long stopped = System.nanoTime();
+            counter.model.off();
+            BeatScheduler scheduler = counter.model.scheduler;
+            synchronized (scheduler) {
+                expected += (stopped - scheduler.origin) / scheduler.period + 1;
+            }
+        }
+        Thread.sleep(1100); // Longer than a beat at 60 BPM, so every entry came up
+        long handedOut = 0;
+        long played = 0;
+        long dropped = 0;
+        for (Counter counter : counters) {
+            BeatScheduler scheduler = counter.model.scheduler;
+            synchronized (scheduler) {
+                handedOut += scheduler.beats;   // Played or dropped, since origin
+            }
+            played += counter.played.get();
+            dropped += counter.model.getDroppedBeats();
+        }
+        long lost = handedOut - played - dropped;
+        System.out.printf("expected %d beats: played %d, dropped %d (%.2f%%), lost %d, "
+                + "pending at off() %d%n", expected, played, dropped,
+                100.0 * dropped / expected, lost, expected - handedOut);
+        System.out.printf("late %s%n", lateness);
+        System.out.printf("overlapping beats %d, models still scheduled %d%n",
+                overlaps.get(), timer.size());
+        boolean ok = lost == 0 && overlaps.get() == 0 && timer.size() == 0;
+
+        int changing = Math.min(count, TEMPO_MODELS);
+        for (int i = 0; i < changing; i++) {
+            counters[i].model.on();
+        }
+        int mostQueued = 0;
+        for (int i = 0; i < tempoChanges; i++) {
+            counters[random.nextInt(changing)].model.setBPM(60 + random.nextInt(241));
+            if (i % 1000 == 0) {
+                mostQueued = Math.max(mostQueued, timer.queued());
+            }
+        }
+        mostQueued = Math.max(mostQueued, timer.queued());
+        for (int i = 0; i < changing; i++) {
+            counters[i].model.off();
+        }
+        // Live entries plus at most as many stale ones
+        int allowed = 2 * changing + 1;
+        System.out.printf("%d tempo changes on %d models: at most %d entries queued "
+                + "(allowed %d)%n", tempoChanges, changing, mostQueued, allowed);
+        ok &= mostQueued <= allowed;
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static class Counter implements BeatObserver {
+        final BeatModel model;
+        final LatencyHistogram lateness;
+        final AtomicLong overlaps;
+        final AtomicLong played = new AtomicLong();
+        final AtomicLong inside = new AtomicLong();  // Threads in updateBeat()
+        final long busyNanos;
+
+        Counter(BeatModel model, LatencyHistogram lateness, AtomicLong overlaps,
+                int busyMicros) {
+            this.model = model;
+            this.lateness = lateness;
+            this.overlaps = overlaps;
+            this.busyNanos = busyMicros * 1000L;
+        }
+
+        @Override
+        public void updateBeat() {
+            if (inside.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            lateness.record(System.nanoTime() - model.scheduler.due);
+            played.incrementAndGet();
+            long end = System.nanoTime() + busyNanos;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            inside.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package djview;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/*
+Plays a BeatModel through a day of virtual time on a VirtualClock: a new
+random tempo every ten minutes, and every hour the model is stopped for the
+last five minutes and started again, with an observer that comes and goes
+with each run. A BeatView is pulsed on every beat and animated at the
+AnimationClock's rate, all on this thread.
+
+    ant bench-soak -Dsoak.args="24 1"
+
+Arguments: the hours to play and the seed for the tempos. Checks, and exits
+with 1 if any fails:
+
+- timing: every beat comes exactly one period after the one before, or, when
+  the tempo changed in between, one new period after it (or right away if
+  that's already past). On a virtual clock there's no jitter, so "exactly"
+  means to the nanosecond.
+- threads: after every stop the beat thread has ended, and the JVM has the
+  same number of threads as after the first hour.
+- memory: the heap in use after a GC grows by less than MAX_GROWTH between
+  the end of the first hour and the end of the run.
+- observers: the model has as many as before the first start.
+
+The beat thread is stepped from one deadline to the next: this thread waits
+until it's parked on the clock, then moves the clock to whatever comes first,
+its deadline, the next tempo change or start/stop, or the next animation tick.
+*/
+public class SoakTest {
+    static final long SECOND = 1_000_000_000L;
+    static final long MINUTE = 60 * SECOND;
+    static final long HOUR = 60 * MINUTE;
+    static final long TEMPO_EVERY = 10 * MINUTE;
+    static final long OFF_AT = 55 * MINUTE;     // Into every hour
+    static final long TICK = AnimationClock.TICK_MILLIS * 1_000_000L;
+    static final long MAX_GROWTH = 2 << 20;
+
+    final VirtualClock clock = new VirtualClock(0);
+    final BeatModel model = new BeatModel();
+    final BeatView view = new BeatView(model);
+    final BufferedImage screen = new BufferedImage(160, 24, BufferedImage.TYPE_INT_RGB);
+    final Random random;
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    volatile long beats;        // Written by the beat thread's observer
+    volatile long lastBeat;
+    long checked;               // Beats checked so far
+    long expected;              // When the next beat is due, -1 if stopped
+    long previous;
+    int failures;
+
+    SoakTest(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int hours = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        System.setProperty("java.awt.headless", "true");
+        SoakTest soak = new SoakTest(seed);
+        long started = System.nanoTime();
+        soak.run(hours);
+        System.out.printf("%d virtual hours in %.1fs%n", hours,
+                (System.nanoTime() - started) / 1e9);
+        System.exit(soak.failures == 0 ? 0 : 1);
+    }
+
+    void run(int hours) throws Exception {
+        model.setClock(clock);
+        AnimationClock.shared().setClock(clock);
+        view.setSize(screen.getWidth(), screen.getHeight());
+        int observers = model.beatObservers.size() + model.bpmObservers.size();
+        BeatObserver counter = () -> {
+            lastBeat = clock.nanoTime();
+            beats++;
+        };
+
+        int live = 0;
+        long heap = 0;
+        long end = hours * HOUR;
+        long nextTick = 0;
+        expected = -1;
+        while (clock.nanoTime() < end) {
+            long now = clock.nanoTime();
+            long hour = now / HOUR;
+            long intoHour = now % HOUR;
+            if (intoHour == 0) {
+                model.registerObserver(counter);
+                model.on();
+                expected = now;
+                setTempo();
+            } else if (intoHour == OFF_AT) {
+                model.off();
+                model.thread.join(VirtualClock.STUCK_MILLIS);
+                check(!model.thread.isAlive(), "beat thread still running at %s",
+                        time(now));
+                model.removeObserver(counter);
+                expected = -1;
+                if (hour == 0) {
+                    gc();
+                    live = threads.getThreadCount();
+                    heap = memory.getHeapMemoryUsage().getUsed();
+                } else {
+                    check(threads.getThreadCount() == live, "%d threads at %s, %d after an hour",
+                            threads.getThreadCount(), time(now), live);
+                }
+            } else if (intoHour % TEMPO_EVERY == 0 && expected >= 0) {
+                setTempo();
+            }
+            if (now >= nextTick) {
+                AnimationClock.shared().tick();
+                nextTick = now + TICK;
+            }
+
+            // On to whatever comes next
+            long nextEvent = hour * HOUR + (intoHour < OFF_AT
+                    ? Math.min(OFF_AT, (intoHour / TEMPO_EVERY + 1) * TEMPO_EVERY) : HOUR);
+            long next = Math.min(clock.nextDeadline(), nextEvent);
+            if (AnimationClock.shared().getAnimating() > 0) {
+                next = Math.min(next, nextTick);
+            }
+            clock.advanceTo(next);
+            clock.awaitWaiting(expected >= 0 ? 1 : 0);
+            checkBeats();
+        }
+
+        gc();
+        long growth = memory.getHeapMemoryUsage().getUsed() - heap;
+        check(growth < MAX_GROWTH, "heap grew by %dKB", growth >> 10);
+        int left = model.beatObservers.size() + model.bpmObservers.size();
+        check(left == observers, "%d observers left, %d at the start", left, observers);
+        System.out.printf("%d beats, %d threads, heap grew by %dKB after the first hour, "
+                + "%d failures%n", checked, live, growth >> 10, failures);
+    }
+
+    // A new tempo, and when the beat after the last one is due with it
+    void setTempo() {
+        model.setBPM(60 + random.nextInt(141));
+        clock.awaitWaiting(1);
+        checkBeats();
+        expected = Math.max(previous + BeatScheduler.periodOf(model.getBPM()),
+                clock.nanoTime());
+    }
+
+    // Checks the beat played since the last call, if any
+    void checkBeats() {
+        long played = beats;
+        if (played == checked) {
+            return;
+        }
+        long beat = lastBeat;
+        check(played == checked + 1, "%d beats at once at %s", played - checked, time(beat));
+        check(beat == expected, "beat at %s, due at %s", time(beat), time(expected));
+        checked = played;
+        previous = beat;
+        expected = beat + BeatScheduler.periodOf(model.getBPM());
+
+        view.pulse(beat);
+        Graphics2D g = screen.createGraphics();
+        view.paint(g);
+        g.dispose();
+    }
+
+    void check(boolean ok, String format, Object... args) {
+        if (!ok) {
+            failures++;
+            if (failures <= 10) {
+                System.out.println("FAILED: " + String.format(format, args));
+            }
+        }
+    }
+
+    void gc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+
+    static String time(long nanos) {
+        return String.format("%d:%02d:%02d.%09d", nanos / HOUR, nanos % HOUR / MINUTE,
+                nanos % MINUTE / SECOND, nanos % SECOND);
+    }
+}
@@ -0,0 +1,126 @@
+package djview;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+Compares how long the headless and the Swing entry points take to start,
+each in fresh JVMs: HeadlessTestDrive (told to quit right away) against
+DJTestDrive (with -Ddjview.exitWhenReady=true), and against EagerStartup
+below, which starts up the way DJTestDrive used to: both frames first, then
+the audio. For each it reports the median and the best of:
+
+- ready: the "Ready in" time the entry point prints itself, from main() to
+  the first playable beat
+- since launch: the same, but from the start of the JVM
+- wall: from launching the JVM until it has exited
+
+and, from one more run with -verbose:class, how many AWT and Swing classes
+were loaded.
+
+    ant bench-startup -Dstartup.args="10 -Xshare:off"
+
+Arguments: runs per entry point, then JVM options for all of them.
+DJTestDrive needs a display; without one, its runs fail and the error is
+reported instead.
+*/
+public class StartupComparison {
+    static final Pattern READY = Pattern.compile("Ready in (\\d+)ms, (\\d+)ms since launch");
+    static final Pattern DESKTOP_CLASS = Pattern.compile(" (java\\.awt|javax\\.swing)\\.");
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> options = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+        measure("headless", options, "djview.HeadlessTestDrive", "quit", runs);
+        List<String> swing = new ArrayList<>(options);
+        swing.add("-Ddjview.exitWhenReady=true");
+        measure("swing", swing, "djview.DJTestDrive", null, runs);
+        measure("eager", options, EagerStartup.class.getName(), null, runs);
+        System.exit(0);
+    }
+
+    // The startup before the audio was initialized in parallel and the
+    // controls on demand, for comparison
+    public static class EagerStartup {
+        public static void main(String[] args) {
+            LaunchTimer timer = new LaunchTimer();
+            BeatModel model = new BeatModel();
+            BeatController controller = new BeatController(model, null);
+            controller.view = new DJView(controller, model);
+            controller.view.createView();
+            controller.view.createControls();
+            model.initialize();
+            System.out.println(timer.ready());
+            System.exit(0);
+        }
+    }
+
+    static void measure(String name, List<String> options, String main, String arg, int runs)
+            throws Exception {
+        List<Long> ready = new ArrayList<>();
+        List<Long> sinceLaunch = new ArrayList<>();
+        List<Long> wall = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            long started = System.nanoTime();
+            String output = launch(options, main, arg);
+            long elapsed = System.nanoTime() - started;
+            Matcher matcher = READY.matcher(output);
+            if (!matcher.find()) {
+                System.out.printf("%-9s failed: %s%n", name, failure(output));
+                return;
+            }
+            ready.add(Long.parseLong(matcher.group(1)));
+            sinceLaunch.add(Long.parseLong(matcher.group(2)));
+            wall.add(elapsed / 1_000_000);
+        }
+        List<String> verbose = new ArrayList<>(options);
+        verbose.add("-verbose:class");
+        long desktop = launch(verbose, main, arg).lines()
+                .filter(line -> DESKTOP_CLASS.matcher(line).find())
+                .count();
+        System.out.printf("%-9s ready %s, since launch %s, wall %s, %d AWT/Swing classes%n",
+                name, stats(ready), stats(sinceLaunch), stats(wall), desktop);
+    }
+
+    // Runs the main class in a JVM of its own and returns everything it printed
+    static String launch(List<String> options, String main, String arg)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        command.addAll(options);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main);
+        if (arg != null) {
+            command.add(arg);
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        process.getOutputStream().close();  // No commands on stdin
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        process.waitFor();
+        return output;
+    }
+
+    // Median and best, in milliseconds
+    static String stats(List<Long> millis) {
+        Collections.sort(millis);
+        return String.format("%dms (best %dms)", millis.get(millis.size() / 2), millis.get(0));
+    }
+
+    // The exception that ended a run, or else the first thing it printed
+    static String failure(String output) {
+        return output.lines()
+                .filter(line -> line.startsWith("Exception in thread"))
+                .findFirst()
+                .orElse(output.lines().findFirst().orElse("no output"));
+    }
+}
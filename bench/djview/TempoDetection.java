@@ -0,0 +1,70 @@
+package djview;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/*
+Checks the TempoDetector against audio with a known tempo and measures how
+much faster than realtime it runs.
+
+    ant bench-tempo -Dtempo.args="song-128.wav 128 other.wav 93"
+
+The arguments are pairs of WAV file and expected BPM. Without arguments,
+generated 30 second click tracks with a little noise are used. Exits with 1
+if any tempo was detected wrong.
+*/
+public class TempoDetection {
+    static final float RATE = 44100;
+    
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+        if (args.length == 0) {
+            for (int bpm : new int[] {64, 72, 90, 100, 120, 128, 140, 174, 190}) {
+                failures += check("clicks at " + bpm, clicks(bpm, 30), 30, bpm);
+            }
+        } else {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                AudioInputStream in = AudioSystem.getAudioInputStream(new File(args[i]));
+                double seconds = in.getFrameLength() / in.getFormat().getFrameRate();
+                failures += check(args[i], in, seconds, Integer.parseInt(args[i + 1]));
+            }
+        }
+        System.out.println(failures == 0 ? "All tempos detected." : failures + " wrong.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    static int check(String name, AudioInputStream in, double seconds, int expected)
+            throws Exception {
+        long started = System.nanoTime();
+        double bpm = TempoDetector.detect(in, null);
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        boolean ok = Math.abs(bpm - expected) <= 1;
+        System.out.printf("%-20s expected %3d, detected %6.2f  %4s  %5.0fx realtime%n",
+                name, expected, bpm, ok ? "ok" : "FAIL", seconds / elapsed);
+        return ok ? 0 : 1;
+    }
+    
+    // A decaying noise burst on every beat, over quiet background noise
+    static AudioInputStream clicks(int bpm, int seconds) {
+        AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+        int frames = (int)(RATE * seconds);
+        byte[] data = new byte[frames * 2];
+        Random random = new Random(bpm);
+        double period = RATE * 60 / bpm;
+        for (int f = 0; f < frames; f++) {
+            double sinceBeat = f % period;
+            double value = random.nextGaussian() * 200;
+            if (sinceBeat < 2000) {
+                value += random.nextGaussian() * 12000 * Math.exp(-sinceBeat / 300);
+            }
+            short s = (short)Math.max(Short.MIN_VALUE, Math.min(value, Short.MAX_VALUE));
+            data[2 * f] = (byte)s;
+            data[2 * f + 1] = (byte)(s >> 8);
+        }
+        return new AudioInputStream(new ByteArrayInputStream(data), format, frames);
+    }
+}
@@ -0,0 +1,126 @@
+package djview;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/*
+Compares the BeatBar with the BeatView when many views are open: frames
+painted per second, pixels painted per frame and how much of a CPU the Event
+Dispatch Thread needs for it.
+
+    ant bench-visualizer -Dvisualizer.args="48 10 120"
+
+Arguments: the number of views of each kind, seconds per run and the tempo.
+It runs headless, so there are no windows: a RepaintManager collects the
+regions the views ask to repaint, like Swing's does, and paints them into
+offscreen images once per event. Without a screen the BeatView has no
+VolatileImage and falls back to a BufferedImage.
+*/
+public class VisualizerLoad {
+
+    public static void main(String[] args) throws Exception {
+        int views = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int bpm = args.length > 2 ? Integer.parseInt(args[2]) : 120;
+        System.setProperty("java.awt.headless", "true");
+
+        BeatModel model = new BeatModel();
+        model.setBPM(bpm);
+        JComponent[] bars = new JComponent[views];
+        JComponent[] beatViews = new JComponent[views];
+        SwingUtilities.invokeAndWait(() -> {
+            for (int i = 0; i < views; i++) {
+                bars[i] = new BeatBar();
+                beatViews[i] = new BeatView(model);
+            }
+        });
+        run("BeatBar", bars, seconds, bpm);
+        run("BeatView", beatViews, seconds, bpm);
+        System.exit(0);
+    }
+
+    static void run(String name, JComponent[] views, int seconds, int bpm) throws Exception {
+        Painter painter = new Painter();
+        Timer beats = new Timer(60_000 / bpm, event -> {
+            long now = System.nanoTime();
+            for (JComponent view : views) {
+                if (view instanceof BeatBar) {
+                    ((BeatBar)view).pulse();
+                } else {
+                    ((BeatView)view).pulse(now);
+                }
+            }
+        });
+        long[] edt = new long[1];
+        SwingUtilities.invokeAndWait(() -> {
+            RepaintManager.setCurrentManager(painter);
+            for (JComponent view : views) {
+                view.setSize(160, 24);
+            }
+            edt[0] = Thread.currentThread().getId();
+            beats.start();
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Thread.sleep(1000); // Warm up
+        long cpu = threads.getThreadCpuTime(edt[0]);
+        long frames = painter.frames;
+        long pixels = painter.pixels;
+        Thread.sleep(seconds * 1000L);
+        cpu = threads.getThreadCpuTime(edt[0]) - cpu;
+        frames = painter.frames - frames;
+        pixels = painter.pixels - pixels;
+        SwingUtilities.invokeAndWait(beats::stop);
+
+        System.out.printf("%-8s x%d: %.1f frames/s, %d pixels/frame, EDT %.1f%% CPU "
+                + "(%.0fus per frame)%n", name, views.length, (double)frames / seconds,
+                pixels / Math.max(frames, 1), 100.0 * cpu / (seconds * 1e9),
+                cpu / 1e3 / Math.max(frames, 1));
+    }
+
+    // Paints what was asked to be repainted, once per event, like Swing does
+    static class Painter extends RepaintManager {
+        final Map<JComponent, Rectangle> dirty = new IdentityHashMap<>();
+        final Map<JComponent, BufferedImage> screens = new IdentityHashMap<>();
+        volatile long frames;
+        volatile long pixels;
+
+        @Override
+        public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            Rectangle region = new Rectangle(x, y, w, h).intersection(
+                    new Rectangle(0, 0, c.getWidth(), c.getHeight()));
+            if (region.isEmpty()) {
+                return;
+            }
+            if (dirty.isEmpty()) {
+                SwingUtilities.invokeLater(this::paintDirty);
+            }
+            dirty.merge(c, region, Rectangle::union);
+        }
+
+        void paintDirty() {
+            for (Map.Entry<JComponent, Rectangle> entry : dirty.entrySet()) {
+                JComponent c = entry.getKey();
+                Rectangle r = entry.getValue();
+                BufferedImage screen = screens.computeIfAbsent(c, k -> new BufferedImage(
+                        k.getWidth(), k.getHeight(), BufferedImage.TYPE_INT_RGB));
+                Graphics2D g = screen.createGraphics();
+                g.clipRect(r.x, r.y, r.width, r.height);
+                c.paint(g);
+                g.dispose();
+                pixels += r.width * r.height;
+            }
+            dirty.clear();
+            frames++;
+        }
+    }
+}
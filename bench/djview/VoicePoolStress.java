@@ -0,0 +1,106 @@
+package djview;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/*
+Triggers a ClipVoices pool at tempos far beyond anything musical, where the
+clap is several beats long and voices have to be stolen all the time, and
+measures what a trigger costs: its time and the heap allocated on the beat
+thread, and how many beats cut off a voice.
+
+    ant bench-voices -Dvoices.args="clap.wav 8 3"
+
+Arguments: the sample, the number of voices and the seconds per tempo.
+Without a sample, a generated 300ms clap is used. Without an audio device
+the pool runs dry (bookkeeping only, no lines), which still shows whether
+picking a voice allocates.
+*/
+public class VoicePoolStress {
+    static final int[] TEMPOS = {1000, 2000, 5000, 10000};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : ClipVoices.DEFAULT_VOICES;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        for (ClipVoices.Stealing stealing : ClipVoices.Stealing.values()) {
+            for (int bpm : TEMPOS) {
+                ClipVoices voices = open(args, count, stealing);
+                run(voices, bpm, seconds);
+                voices.close();
+            }
+        }
+    }
+
+    static ClipVoices open(String[] args, int count, ClipVoices.Stealing stealing)
+            throws Exception {
+        AudioInputStream in = args.length > 0 && !args[0].isEmpty()
+                ? AudioSystem.getAudioInputStream(new File(args[0])) : clap();
+        try {
+            return new ClipVoices(in, count, stealing);
+        } catch (Exception ex) {
+            in = args.length > 0 && !args[0].isEmpty()
+                    ? AudioSystem.getAudioInputStream(new File(args[0])) : clap();
+            AudioFormat format = in.getFormat();
+            AudioFormat pcm = new AudioFormat(format.getSampleRate(), 16,
+                    format.getChannels(), true, false);
+            return new ClipVoices(AudioSystem.getAudioInputStream(pcm, in).readAllBytes(),
+                    pcm, count, stealing);
+        }
+    }
+
+    // Exponentially decaying noise, roughly what a clap looks like
+    static AudioInputStream clap() {
+        AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+        int frames = 44100 * 3 / 10;
+        byte[] data = new byte[frames * 2];
+        Random random = new Random(1);
+        for (int f = 0; f < frames; f++) {
+            short s = (short)(random.nextGaussian() * 8000 * Math.exp(-f / 3000.0));
+            data[2 * f] = (byte)s;
+            data[2 * f + 1] = (byte)(s >> 8);
+        }
+        return new AudioInputStream(new ByteArrayInputStream(data), format, frames);
+    }
+
+    static void run(ClipVoices voices, int bpm, int seconds) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        BeatScheduler scheduler = new BeatScheduler(bpm);
+
+        // Warm up, so class loading and JIT don't count
+        for (int i = 0; i < 10_000; i++) {
+            voices.pick(System.nanoTime());
+        }
+        long triggers = voices.getTriggers();
+        long stolen = voices.getStolen();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        scheduler.start();
+        while (System.nanoTime() < end && scheduler.awaitNextBeat()) {
+            voices.trigger();
+        }
+        triggers = voices.getTriggers() - triggers;
+        stolen = voices.getStolen() - stolen;
+
+        // Most of the time goes to waiting for the beats, so time the
+        // triggers on their own.
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            voices.trigger();
+        }
+        double perTrigger = (System.nanoTime() - started) / 100_000.0;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.printf("%-8s %5d BPM, %d voices%s: %d beats, %.0f%% stolen, "
+                + "%.0fns per trigger, %d bytes allocated by 100k triggers%n",
+                voices.stealing, bpm, voices.getVoiceCount(),
+                voices.clips[0] == null ? " (dry)" : "", triggers,
+                100.0 * stolen / Math.max(triggers, 1), perTrigger, allocated);
+    }
+}
@@ -0,0 +1,39 @@
+package djview;
+
+/*
+What every controller does with the model, whatever drives it: turn it on
+and off and change its tempo. BeatController adds the Swing view on top,
+HeadlessController the console.
+*/
+public abstract class AbstractController implements ControllerInterface {
+    BeatModelInterface model;
+
+    protected AbstractController(BeatModelInterface model) {
+        this.model = model;
+    }
+
+    @Override
+    public void start() {
+        model.on();
+    }
+
+    @Override
+    public void stop() {
+        model.off();
+    }
+
+    @Override
+    public void increaseBPM() {
+        model.adjustBPM(1);
+    }
+
+    @Override
+    public void decreaseBPM() {
+        model.adjustBPM(-1);
+    }
+
+    @Override
+    public void setBPM(int bpm) {
+        model.setBPM(bpm);
+    }
+}
@@ -0,0 +1,85 @@
+package djview;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.Timer;
+
+/*
+One clock that drives the animation of all BeatBars and BeatViews. Instead of
+every bar running its own thread that loops forever, the bars that are
+currently animating register here and get a tick() every 25ms.
+
+The clock is a javax.swing.Timer, so the ticks are delivered on the Event
+Dispatch Thread, the only thread that's allowed to touch Swing components.
+Since everything happens on the EDT, the list needs no synchronization.
+
+When the last bar has decayed to zero the timer is stopped, so nothing runs
+while the app is idle. The next beat starts it again.
+
+The bars that need the time (BeatView) get it from nanoTime(). With a clock
+other than BeatClock.SYSTEM the Swing timer isn't used at all: whoever moves
+that clock also calls tick(), on whatever thread owns the bars.
+*/
+public class AnimationClock {
+    static final int TICK_MILLIS = 25;
+    static AnimationClock shared;
+
+    // Anything the clock can animate, e.g. a BeatBar or a BeatView
+    public interface Animated {
+        // Advances the animation by one tick. Returns false once it's done.
+        boolean tick();
+    }
+
+    List<Animated> bars = new ArrayList<>();
+    Timer timer;
+    volatile BeatClock clock = BeatClock.SYSTEM;
+
+    AnimationClock() {
+        timer = new Timer(TICK_MILLIS, event -> tick());
+    }
+
+    // Any thread may get it, to read nanoTime()
+    public static synchronized AnimationClock shared() {
+        if (shared == null) {
+            shared = new AnimationClock();
+        }
+        return shared;
+    }
+
+    // Must be called on the EDT
+    public void animate(Animated bar) {
+        if (!bars.contains(bar)) {
+            bars.add(bar);
+        }
+        if (clock == BeatClock.SYSTEM && !timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    public void setClock(BeatClock clock) {
+        this.clock = clock;
+        if (clock != BeatClock.SYSTEM) {
+            timer.stop();
+        }
+    }
+
+    // Safe to call from any thread, e.g. to time a beat for the animation
+    public long nanoTime() {
+        return clock.nanoTime();
+    }
+
+    public int getAnimating() {
+        return bars.size();
+    }
+
+    public boolean isRunning() {
+        return timer.isRunning();
+    }
+
+    void tick() {
+        bars.removeIf(bar -> !bar.tick()); // Bars that reached zero are done
+        if (bars.isEmpty()) {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package djview;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Wraps an observer so that it's notified on an Executor instead of the thread
+that calls notifyBeatObservers()/notifyBPMObservers(). The beat thread only
+enqueues the event and moves on, so a slow updateBeat() can never delay the
+next beat.
+
+Beat and BPM events carry no data (the observer asks the model for the state),
+so the "queue" of an observer is just a count of pending events. When it's
+full, the overflow policy decides what happens:
+
+- DROP: at most `capacity` events wait for the observer, newer ones are
+  dropped and counted in getDropped().
+- COALESCE: all pending events are merged into a single call. That's what a
+  BPM observer wants, since it only cares about the latest value.
+
+Events for the same observer are always delivered one at a time and in order.
+*/
+public class AsyncObserver implements BeatObserver, BPMObserver, Runnable {
+    public enum Overflow { DROP, COALESCE }
+
+    // Shared by all async observers unless another executor is given
+    static final ExecutorService DEFAULT_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "AsyncObserver");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    final Object target;
+    final Runnable delivery;
+    final Executor executor;
+    final int limit;
+    final AtomicInteger pending = new AtomicInteger();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    final AtomicLong dropped = new AtomicLong();
+
+    AsyncObserver(Object target, Runnable delivery, Executor executor,
+            int capacity, Overflow overflow) {
+        this.target = target;
+        this.delivery = delivery;
+        this.executor = executor;
+        this.limit = overflow == Overflow.COALESCE ? 1 : Math.max(capacity, 1);
+    }
+
+    public static AsyncObserver of(BeatObserver o, Executor executor,
+            int capacity, Overflow overflow) {
+        return new AsyncObserver(o, o::updateBeat, executor, capacity, overflow);
+    }
+
+    public static AsyncObserver of(BPMObserver o, Executor executor,
+            int capacity, Overflow overflow) {
+        return new AsyncObserver(o, o::updateBPM, executor, capacity, overflow);
+    }
+
+    // The observer this one delivers to
+    public Object getTarget() {
+        return target;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void updateBeat() {
+        enqueue();
+    }
+
+    @Override
+    public void updateBPM() {
+        enqueue();
+    }
+
+    void enqueue() {
+        int n;
+        do {
+            n = pending.get();
+            if (n >= limit) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!pending.compareAndSet(n, n + 1));
+
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    // Drains the pending events on the executor's thread
+    @Override
+    public void run() {
+        for (;;) {
+            while (pending.get() > 0) {
+                pending.decrementAndGet();
+                try {
+                    delivery.run();
+                } catch (Exception ex) {
+                    System.out.println("Error: Observer failed.");
+                    System.out.println(ex);
+                }
+            }
+            scheduled.set(false);
+            // An event may have arrived after the loop above gave up but
+            // before the flag was cleared. Nobody else will schedule it then.
+            if (pending.get() == 0 || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
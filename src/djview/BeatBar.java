@@ -2,26 +2,32 @@ package djview;
 
 import javax.swing.JProgressBar;
 
-public class BeatBar extends JProgressBar implements Runnable {
+/*
+The bar jumps to 100 on every beat and then decays. The decay used to be
+driven by a thread per bar that never stopped and called setValue() off the
+Event Dispatch Thread. Now all bars are animated by the shared AnimationClock,
+on the EDT, and only while they're actually moving.
+*/
+public class BeatBar extends JProgressBar implements AnimationClock.Animated {
     JProgressBar progressBar;
-    Thread thread;
     
     public BeatBar() {
-        thread = new Thread(this);
         setMaximum(100);
-        thread.start();
     }
     
+    // Called on the EDT for every beat
+    public void pulse() {
+        setValue(100);
+        AnimationClock.shared().animate(this);
+    }
+    
+    // Called by the AnimationClock. Returns false once the bar is back at zero.
     @Override
-    public void run() {
-        for(;;) {
-            int value = getValue();
-            value = (int)(value*.75);
-            setValue(value);
-            repaint();
-            try {
-                Thread.sleep(25);
-            } catch (Exception e) {}
-        }
+    public boolean tick() {
+        int value = getValue();
+        value = (int)(value*.75);
+        setValue(value);
+        repaint();
+        return value > 0;
     }
 }
@@ -0,0 +1,50 @@
+package djview;
+
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Where the beat engine gets the time from, and how it waits for it. SYSTEM is
+the real thing: System.nanoTime() and LockSupport. A VirtualClock only moves
+when it's told to, so a test can play through hours of beats in seconds and
+get exactly the same timing on every run.
+
+Used by the BeatScheduler (and so by BeatModel's beat loop) and by the
+AnimationClock that drives the BeatView.
+*/
+public interface BeatClock {
+    BeatClock SYSTEM = new SystemClock();
+
+    long nanoTime();
+
+    /*
+    Waits until the deadline, or less: like LockSupport.park(), it can return
+    early, so callers check the time again and call it in a loop. The last
+    spinNanos before the deadline may be busy-waited instead of parked.
+    */
+    void await(Object blocker, long deadline, long spinNanos);
+
+    // Wakes up a thread waiting in await()
+    void unpark(Thread thread);
+
+    class SystemClock implements BeatClock {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void await(Object blocker, long deadline, long spinNanos) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > spinNanos) {
+                LockSupport.parkNanos(blocker, remaining - spinNanos);
+            } else if (remaining > 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public void unpark(Thread thread) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
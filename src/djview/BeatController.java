@@ -1,8 +1,13 @@
 package djview;
 
-public class BeatController implements ControllerInterface {
-    BeatModelInterface model;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import javax.swing.SwingUtilities;
+
+public class BeatController extends AbstractController {
     DJView view;
+    // Done once the model is initialized, which happens while the view is built
+    CompletableFuture<Void> audioReady = CompletableFuture.completedFuture(null);
     
     
     /*
@@ -23,12 +28,25 @@ public class BeatController implements ControllerInterface {
     => Continued in DJView.java 
     */
     public BeatController(BeatModelInterface model) {   
-        this.model = model; // Use BeatModelInterface, rather than BeatModel                         
+        super(model);       // Use BeatModelInterface, rather than BeatModel                         
                             // reference type to adhere to polymorphic      
                             // principles. This way the same controller can be  
                             // also used with other BeatModels who implement 
                             // this interface.
         
+        /*
+        7. The controller tells the model to initialize. This loads and opens
+        the audio clip passed in BeatModel's initialize() method.
+        
+        Decoding the clip and opening the audio line take about as long as
+        starting up Swing, so the model is initialized on a thread of its own
+        while the view is being built, instead of after it. start() turns
+        the model on once it's done, so it's never turned on before it's
+        ready.
+        */
+        audioReady = CompletableFuture.runAsync(model::initialize,
+                task -> new Thread(task, "AudioInit").start());
+        
         // The controller is passed the model in the constructor and the creates
         // the view.
         view = new DJView(this, model); // Instantiating the DJView object
@@ -39,22 +57,18 @@ public class BeatController implements ControllerInterface {
         /*
         6. The controller tells the view to create its compotents and sets
         the view's initial state.
-        */
-        view.createView();
-        view.createControls();
-        view.disableStopMenuItem();
-        view.enableStartMenuItem();
         
-        /*
-        7. The controller tells the model to initialize. This loads and opens
-        the audio clip passed in BeatModel's initialize() method.
+        Only the view frame is built right away. The control frame is built
+        the first time it's shown (DJView.showControls()), from the view
+        frame's menu, so startup doesn't pay for a frame that isn't needed
+        yet.
         
-        At this point we have an initialized and visible view, so the user can 
-        start interacting. The view is made visible to the user by the 
+        At this point we have a visible view, so the user can start
+        interacting. The view is made visible to the user by the
         createView()'s and createControls()'s method setVisible(). Those two
         methods also set the closing/exiting conditions.
         
-        We have an initialized model that's still off, which 
+        We have a model that's still off, which 
         awaits to be turned on by user interaction. However, the user will NOT
         interact directly with the model. Once the user chooses "Start" in
         the view, the CONTROLLER will be notified about the user interaction
@@ -65,7 +79,27 @@ public class BeatController implements ControllerInterface {
         directly control the model is part of the loose coupling rule of the 
         Observer Pattern.
         */
-        model.initialize();
+        view.createView();
+    }
+    
+    /*
+    Blocks until the model is initialized and the view is up, i.e. the first
+    beat can be played. Called from any thread but the Event Dispatch Thread.
+    */
+    public void awaitReady() throws InterruptedException {
+        audioReady.join();
+        try {
+            SwingUtilities.invokeAndWait(() -> {}); // Whatever the view queued is done
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+    
+    // Wires the controller to an existing view (or none) without building
+    // any Swing components. Used by the benchmarks, which run headless.
+    BeatController(BeatModelInterface model, DJView view) {
+        super(model);
+        this.view = view;
     }
     
     /*
@@ -74,36 +108,24 @@ public class BeatController implements ControllerInterface {
     know the situations in which it should do so.
     */
     
-    // This method is called by the View when the "Start" button is acted upon
+    // This method is called by the View when the "Start" button is acted upon.
+    // It's called on the Event Dispatch Thread, so if the model is still
+    // being initialized, it's turned on by the AudioInit thread once that's
+    // done instead of blocking the UI until then.
     @Override
     public void start() {
-        model.on();
         view.disableStartMenuItem();
-        view.enableStopMenuItem();
+        audioReady.thenRun(() -> {
+            super.start();
+            SwingUtilities.invokeLater(view::enableStopMenuItem);
+        });
     }
     
     // This method is called by the View when the "Stop" button is acted upon
     @Override
     public void stop() {
-        model.off();
+        super.stop();
         view.disableStopMenuItem();
         view.enableStartMenuItem();
     }
-    
-    @Override
-    public void increaseBPM() {
-        int bpm = model.getBPM();
-        model.setBPM(bpm + 1);
-    }
-    
-    @Override
-    public void decreaseBPM() {
-        int bpm = model.getBPM();
-        model.setBPM(bpm - 1);
-    }
-    
-    @Override
-    public void setBPM(int bpm) {
-        model.setBPM(bpm);
-    }
 }
@@ -0,0 +1,136 @@
+package djview;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+
+/*
+Timing measurements of a BeatModel (see BeatModel.enableMetrics()):
+
+- lateness: how much later than scheduled each beat was played
+- play: how long playBeat() took to start the clip
+- beat/BPM dispatch: how long it took to notify all observers
+- per observer: how long each observer's updateBeat()/updateBPM() took
+
+Everything is recorded in LatencyHistograms, so recording allocates nothing.
+The per-observer histograms are created when the observer registers; on the
+beat thread they're only looked up.
+
+The metrics can be read over JMX (register()) or printed periodically
+(startDump()).
+*/
+public class BeatMetrics implements BeatMetricsMBean {
+    final LatencyHistogram lateness = new LatencyHistogram();
+    final LatencyHistogram play = new LatencyHistogram();
+    final LatencyHistogram beatDispatch = new LatencyHistogram();
+    final LatencyHistogram bpmDispatch = new LatencyHistogram();
+    final Map<Object, LatencyHistogram> observers = new ConcurrentHashMap<>();
+    ScheduledExecutorService dumper;
+    
+    void addObserver(Object observer) {
+        observers.putIfAbsent(observer, new LatencyHistogram());
+    }
+    
+    void removeObserver(Object observer) {
+        observers.remove(observer);
+    }
+    
+    void recordObserver(Object observer, long nanos) {
+        LatencyHistogram histogram = observers.get(observer);
+        if (histogram != null) {
+            histogram.record(nanos);
+        }
+    }
+    
+    // Makes the metrics visible to JConsole, VisualVM etc. as djview:type=BeatMetrics,name=...
+    public void register(String name) throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("djview:type=BeatMetrics,name=" + ObjectName.quote(name)));
+    }
+    
+    // Prints dump() every `seconds` seconds, on a daemon thread
+    public synchronized void startDump(long seconds, PrintStream out) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "BeatMetrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.println(dump()), seconds, seconds,
+                TimeUnit.SECONDS);
+    }
+    
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+    
+    @Override
+    public long getBeatCount() {
+        return beatDispatch.getCount();
+    }
+    
+    @Override
+    public long getLatenessMeanMicros() {
+        return lateness.getMean() / 1000;
+    }
+    
+    @Override
+    public long getLatenessP99Micros() {
+        return lateness.getPercentile(0.99) / 1000;
+    }
+    
+    @Override
+    public long getLatenessMaxMicros() {
+        return lateness.getMax() / 1000;
+    }
+    
+    @Override
+    public long getPlayP99Micros() {
+        return play.getPercentile(0.99) / 1000;
+    }
+    
+    @Override
+    public long getBeatDispatchP99Micros() {
+        return beatDispatch.getPercentile(0.99) / 1000;
+    }
+    
+    @Override
+    public long getBPMDispatchP99Micros() {
+        return bpmDispatch.getPercentile(0.99) / 1000;
+    }
+    
+    @Override
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("lateness       ").append(lateness).append('\n');
+        out.append("play           ").append(play).append('\n');
+        out.append("beat dispatch  ").append(beatDispatch).append('\n');
+        out.append("bpm dispatch   ").append(bpmDispatch).append('\n');
+        for (Map.Entry<Object, LatencyHistogram> entry : observers.entrySet()) {
+            Object observer = entry.getKey();
+            out.append("  ").append(observer.getClass().getSimpleName()).append('@')
+                    .append(Integer.toHexString(System.identityHashCode(observer)))
+                    .append(' ').append(entry.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+    
+    @Override
+    public void reset() {
+        lateness.reset();
+        play.reset();
+        beatDispatch.reset();
+        bpmDispatch.reset();
+        for (LatencyHistogram histogram : observers.values()) {
+            histogram.reset();
+        }
+    }
+}
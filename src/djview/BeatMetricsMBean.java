@@ -0,0 +1,26 @@
+package djview;
+
+/*
+The JMX view of BeatMetrics (a standard MBean: the attributes are the getters,
+the other methods are operations). All times are in microseconds.
+*/
+public interface BeatMetricsMBean {
+    
+    long getBeatCount();
+    
+    long getLatenessMeanMicros(); // How late beats were played vs. scheduled
+    
+    long getLatenessP99Micros();
+    
+    long getLatenessMaxMicros();
+    
+    long getPlayP99Micros(); // How long starting the clip took
+    
+    long getBeatDispatchP99Micros(); // All updateBeat() calls of a beat
+    
+    long getBPMDispatchP99Micros(); // All updateBPM() calls of a change
+    
+    String dump();
+    
+    void reset();
+}
@@ -2,19 +2,51 @@
 package djview;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.Line;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BeatModel implements BeatModelInterface, Runnable {
-    List<BeatObserver> beatObservers = new ArrayList<>();
-    List<BPMObserver> bpmObservers = new ArrayList<>();
-    int bpm = 90;
+    // Copy-on-write lists: observers are (un)registered from the Swing thread
+    // while the beat thread iterates over them. Iterating needs no locking
+    // and always sees a consistent snapshot; only registering copies the list.
+    List<BeatObserver> beatObservers = new CopyOnWriteArrayList<>();
+    List<BPMObserver> bpmObservers = new CopyOnWriteArrayList<>();
+    Executor asyncExecutor;     // null = observers are called on the beat thread
+    int asyncCapacity;
+    AsyncObserver.Overflow asyncOverflow;
+    BeatPublisher<Long> beatPublisher;      // Created on first use
+    BeatPublisher<Integer> bpmPublisher;
+    // Atomic, since the tempo is changed from the Swing thread (and others)
+    // and read by the beat thread. See compareAndSetBPM().
+    AtomicInteger bpm = new AtomicInteger(90);
+    long bpmNotifyNanos;        // 0 = every change is notified right away
+    AtomicBoolean bpmNotifyPending = new AtomicBoolean();
+    volatile long lastBPMNotify;    // Only meaningful once bpmNotified is set
+    volatile boolean bpmNotified;
     Thread thread;
     boolean stop = false;
-    Clip clip;
+    BeatScheduler scheduler = new BeatScheduler(bpm.get());
+    long droppedBeats;  // By the schedulers before the current one
+    BeatClock clock = BeatClock.SYSTEM;
+    BeatTimer timer;    // null = the model runs its own beat thread
+    ExecutionMode mode = ExecutionMode.PLATFORM;
+    volatile BeatMetrics metrics;   // null = not measuring
+    EventRecorder recorder;         // null = not recording
+    MidiClockOut midiClock;         // null = no MIDI clock sent
+    ClipVoices voices;      // Clips that play the beats, so they can overlap
+    int voiceCount = ClipVoices.DEFAULT_VOICES;
+    ClipVoices.Stealing stealing = ClipVoices.Stealing.OLDEST;
+    StreamingEngine engine; // Only used in streaming mode, instead of voices
+    SampleBank samples = new SampleBank();
+    Pattern pattern;        // null = the clap on every beat
+    boolean streaming = false;
+    int bufferFrames = StreamingEngine.DEFAULT_BUFFER_FRAMES;
     
     /* 
     2. Since a constructor is not explicitly implemented, the default
@@ -38,30 +70,178 @@ public class BeatModel implements BeatModelInterface, Runnable {
     @Override
     public void initialize() {
         try {
-            File resource = new File("clap.wav");
-            clip = (Clip) AudioSystem.getLine(new Line.Info(Clip.class));
-            clip.open(AudioSystem.getAudioInputStream(resource));
+            // Decoded once, into the bank, for either way of playing it
+            int id = samples.load(new File("clap.wav"));
+            if (streaming) {
+                engine = new StreamingEngine(samples, id, bufferFrames);
+                return;
+            }
+            voices = new ClipVoices(samples, id, voiceCount, stealing);
         } catch(Exception ex) {
             System.out.println("Error: Can't load clip.");
             System.out.println(ex);
         }
     }
     
+    /*
+    How many beats can ring at the same time, and which one is cut off when
+    there's one more (see ClipVoices). At fast tempos the clap is longer than
+    a beat, so with a single voice every beat would cut off the one before.
+    Must be called before initialize().
+    */
+    public void setVoices(int count, ClipVoices.Stealing stealing) {
+        this.voiceCount = count;
+        this.stealing = stealing;
+    }
+    
+    /*
+    Switches the model to streaming mode, where beats are mixed into a
+    SourceDataLine at exact frame positions instead of retriggering a Clip
+    (see StreamingEngine). Must be called before initialize().
+    
+    A smaller buffer means less latency but more risk of underruns.
+    */
+    public void setStreaming(boolean streaming, int bufferFrames) {
+        this.streaming = streaming;
+        this.bufferFrames = bufferFrames;
+    }
+    
+    /*
+    Plays a step sequencer pattern instead of the clap on every beat (streaming
+    mode only). The pattern is compiled at the current tempo and takes over at
+    the next bar, so after editing a pattern, call setPattern() again to hear
+    the changes. The samples it uses come from getSampleBank().
+    */
+    public void setPattern(Pattern pattern) {
+        this.pattern = pattern;
+        updateTimeline();
+    }
+    
+    public SampleBank getSampleBank() {
+        return samples;
+    }
+    
+    void updateTimeline() {
+        if (engine != null) {
+            engine.setTimeline(pattern == null ? null
+                    : pattern.compile(engine.getFrameRate(), bpm.get()));
+        }
+    }
+    
+    // Number of times the streaming engine's buffer ran dry
+    public long getUnderruns() {
+        return engine == null ? 0 : engine.getUnderruns();
+    }
+    
+    // Number of beats that were dropped for being more than a beat late (see
+    // BeatScheduler.advance()), since the model was created
+    public long getDroppedBeats() {
+        return droppedBeats + scheduler.getDroppedBeats();
+    }
+    
+    /*
+    Records the model's events to a log from now on (see EventRecorder), or
+    stops recording with null.
+    */
+    public void setRecorder(EventRecorder recorder) {
+        if (this.recorder != null) {
+            removeObserver((BeatObserver)this.recorder);
+            removeObserver((BPMObserver)this.recorder);
+        }
+        this.recorder = recorder;
+        if (recorder != null) {
+            recorder.attach(this);
+        }
+    }
+    
     @Override
     public void on() {
-        bpm = 90;
-        notifyBPMObservers();
-        thread = new Thread(this);  // Creating a separate Thread to run the 
-        stop = false;               // run() method's while loop.
+        if (recorder != null) {
+            recorder.recordStart();
+        }
+        bpm.set(90);
+        bpmChanged();
+        if (midiClock != null) {
+            midiClock.start();
+        }
+        if (engine != null) {
+            // The audio thread paces the beats itself, no beat thread needed
+            engine.setBPM(bpm.get());
+            updateTimeline();
+            engine.start(this::notifyBeatObservers);
+            return;
+        }
+        // A fresh schedule for every run, so a thread left over from a
+        // previous on() can't go on.
+        scheduler.cancel();
+        droppedBeats += scheduler.getDroppedBeats();
+        scheduler = new BeatScheduler(bpm.get());
+        scheduler.setClock(clock);
+        scheduler.start();
+        if (timer != null) {
+            timer.schedule(scheduler, this::beat);
+            return;
+        }
+        if (mode == ExecutionMode.VIRTUAL) {
+            scheduler.setSpinNanos(0);  // Spinning would block a carrier thread
+        }
+        thread = mode.newThread(this);  // Creating a separate Thread to run
+        stop = false;                   // the run() method's while loop.
         thread.start();             // Starts the newly created thread and,
     }                               // since BeatModel implements Runnable,
                                     // thread.start() also automatically calls
                                     // the overriden run() method.
     
+    /*
+    Lets a shared BeatTimer play this model's beats instead of a thread of its
+    own, so many models can run in one JVM (see SharedBeatTimer). Takes effect
+    at the next on().
+    */
+    public void setTimer(BeatTimer timer) {
+        this.timer = timer;
+    }
+    
+    /*
+    The clock the beats are timed by, e.g. a VirtualClock to play through
+    hours of beats in a test. Takes effect at the next on(). The shared
+    BeatTimer and the streaming engine keep their own time.
+    */
+    public void setClock(BeatClock clock) {
+        this.clock = clock;
+    }
+    
+    /*
+    Sends START and STOP to the MIDI clock at every on() and off() (see
+    MidiClockOut), or to none with null.
+    */
+    public void setMidiClock(MidiClockOut midiClock) {
+        this.midiClock = midiClock;
+    }
+    
+    /*
+    Chooses the kind of thread the beat loop runs on, at the next on(). For
+    observers on the same kind of threads, pass mode.executor() to
+    setAsyncDelivery().
+    */
+    public void setExecutionMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+    
     @Override
     public void off() {
+        if (recorder != null) {
+            recorder.recordStop();
+        }
+        if (midiClock != null) {
+            midiClock.stop();
+        }
+        if (engine != null) {
+            engine.stop();
+            return;
+        }
         stopBeat();
         stop = true;
+        scheduler.cancel(); // Wakes the beat thread up if it's waiting
     }
     
     /* Overriden from Runnable Interface. The method run() must be overriden.
@@ -71,76 +251,298 @@ public class BeatModel implements BeatModelInterface, Runnable {
     
     The general contract of the method run is that it may take any action
     whatsoever.
+    
+    The scheduler blocks until the next beat is due. Deadlines are computed
+    from a fixed starting point, so the time spent in playBeat() and
+    notifyBeatObservers() doesn't make the tempo drift (see BeatScheduler).
     */
     @Override
     public void run() {
-        while (!stop) {
+        BeatScheduler scheduler = this.scheduler;
+        while (!stop && scheduler.awaitNextBeat()) {
+            beat();
+        }
+    }
+    
+    // Everything that happens on a beat, whoever's thread it's called on
+    void beat() {
+        BeatMetrics metrics = this.metrics;
+        if (metrics == null) {
             playBeat();
             notifyBeatObservers();
-            try {
-                Thread.sleep(60000/getBPM());   // This will make sure to slow
-            } catch(Exception ex) {}            // down the thread's execution
-        }                                       // of the while loop to the 
-    }                                           // current BPM.
+            return;
+        }
+        metrics.lateness.record(clock.nanoTime() - scheduler.due);
+        long started = System.nanoTime();
+        playBeat();
+        metrics.play.record(System.nanoTime() - started);
+        notifyBeatObservers();
+    }
+    
+    /*
+    Starts measuring beat lateness, clip start and observer times (see
+    BeatMetrics). Returns the metrics so they can be registered with JMX or
+    dumped periodically.
+    */
+    public synchronized BeatMetrics enableMetrics() {
+        if (metrics == null) {
+            BeatMetrics metrics = new BeatMetrics();
+            beatObservers.forEach(metrics::addObserver);
+            bpmObservers.forEach(metrics::addObserver);
+            this.metrics = metrics;
+        }
+        return metrics;
+    }
     
     @Override
     public void setBPM(int bpm) {
-        this.bpm = bpm;
+        this.bpm.set(bpm);
+        applyBPM();
+        bpmChanged();
+    }
+    
+    /*
+    Changes the tempo only if it's still `expect`, all in one atomic step.
+    For changes relative to the current tempo (bpm + 1), adjustBPM() is
+    simpler.
+    */
+    @Override
+    public boolean compareAndSetBPM(int expect, int update) {
+        if (!bpm.compareAndSet(expect, update)) {
+            return false;
+        }
+        applyBPM();
+        bpmChanged();
+        return true;
+    }
+    
+    // One atomic add, so concurrent +1/-1 from several threads all count
+    @Override
+    public int adjustBPM(int delta) {
+        int bpm = this.bpm.addAndGet(delta);
+        applyBPM();
+        bpmChanged();
+        return bpm;
+    }
+    
+    /*
+    Passes the tempo on to whatever plays the beats. It's synchronized and
+    reads the current value instead of taking one, so when two threads change
+    the tempo at once, the last one to get here applies the latest value and
+    the scheduler can't end up with an older one.
+    */
+    synchronized void applyBPM() {
+        int bpm = this.bpm.get();
+        scheduler.setBPM(bpm); // Re-anchors the schedule on the last beat
+        if (timer != null) {
+            timer.reschedule(scheduler);
+        }
+        if (engine != null) {
+            engine.setBPM(bpm);
+            if (pattern != null) {
+                updateTimeline(); // From the next bar on
+            }
+        }
+    }
+    
+    /*
+    Limits how often BPM observers are notified: at most once per interval,
+    however often the tempo changes. A change right after a quiet period is
+    notified at once; further changes within the interval are merged into one
+    notification at its end. Observers always read the latest tempo, so none
+    is lost. 0 notifies every change right away (the default).
+    
+    A merged notification comes from the Notifier thread, not from whoever
+    changed the tempo, so BPM observers must not assume they're called on
+    any particular thread (DJView hands the update over to the EDT).
+    */
+    public void setBPMNotifyInterval(long millis) {
+        bpmNotifyNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+    
+    void bpmChanged() {
+        long interval = bpmNotifyNanos;
+        if (interval <= 0) {
+            notifyBPMObservers();
+            return;
+        }
+        if (!bpmNotifyPending.compareAndSet(false, true)) {
+            return; // A notification is on its way and will see this change
+        }
+        // nanoTime() can be anything, even 0 or negative, so "never notified"
+        // has a flag of its own
+        long wait = bpmNotified ? lastBPMNotify + interval - System.nanoTime() : 0;
+        if (wait <= 0) {
+            flushBPM();
+        } else {
+            Notifier.SCHEDULER.schedule(this::flushBPM, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    void flushBPM() {
+        lastBPMNotify = System.nanoTime();
+        bpmNotified = true;
+        bpmNotifyPending.set(false); // Changes from now on need a new one
         notifyBPMObservers();
     }
     
+    // Holder, so the thread is only created when coalescing is used
+    static class Notifier {
+        static final ScheduledExecutorService SCHEDULER =
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "BPMNotifier");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+    
+    // Lines the next beat up with a beat played elsewhere at beatTime, a
+    // System.nanoTime() value of this JVM (see BeatScheduler.align()).
+    public void align(long beatTime) {
+        scheduler.align(beatTime);
+        if (timer != null) {
+            timer.reschedule(scheduler);
+        }
+    }
+    
     @Override
     public int getBPM() {
-        return bpm;
+        return bpm.get();
+    }
+    
+    /*
+    Turns on asynchronous delivery for the observers registered from now on.
+    Each of them gets its own queue of `capacity` pending events that's drained
+    on the executor, so a slow observer can't stall the beat loop (see
+    AsyncObserver). Passing a null executor goes back to calling the observers
+    directly on the beat thread.
+    */
+    public void setAsyncDelivery(Executor executor, int capacity,
+            AsyncObserver.Overflow overflow) {
+        asyncExecutor = executor;
+        asyncCapacity = capacity;
+        asyncOverflow = overflow;
+    }
+    
+    /*
+    The beats as a Flow.Publisher, for consumers that want to control how many
+    events they get. Each item is the time of a beat, from the model's clock. Subscribers
+    are served on their own buffers, so they never slow down the beat thread
+    or each other (see BeatPublisher).
+    */
+    public synchronized BeatPublisher<Long> getBeatPublisher() {
+        if (beatPublisher == null) {
+            beatPublisher = new BeatPublisher<>(() -> clock.nanoTime());
+            beatObservers.add(beatPublisher); // Already asynchronous
+        }
+        return beatPublisher;
+    }
+    
+    // The tempo changes as a Flow.Publisher, each item is the new BPM
+    public synchronized BeatPublisher<Integer> getBPMPublisher() {
+        if (bpmPublisher == null) {
+            bpmPublisher = new BeatPublisher<>(this::getBPM);
+            bpmObservers.add(bpmPublisher);
+        }
+        return bpmPublisher;
     }
     
     @Override
     public void registerObserver(BeatObserver o) {
+        if (asyncExecutor != null) {
+            o = AsyncObserver.of(o, asyncExecutor, asyncCapacity, asyncOverflow);
+        }
         beatObservers.add(o);
+        if (metrics != null) {
+            metrics.addObserver(o);
+        }
     }
     
     public void notifyBeatObservers() {
-        for (int i = 0; i < beatObservers.size(); i++) {
-            BeatObserver observer = (BeatObserver)beatObservers.get(i);
+        BeatMetrics metrics = this.metrics;
+        long started = metrics == null ? 0 : System.nanoTime();
+        for (BeatObserver observer : beatObservers) {
+            long called = metrics == null ? 0 : System.nanoTime();
             observer.updateBeat(); // !!! Can this be refactored to a generic method where it's not required for BeatModel to know the name of the method?
+            if (metrics != null) {
+                metrics.recordObserver(observer, System.nanoTime() - called);
+            }
+        }
+        if (metrics != null) {
+            metrics.beatDispatch.record(System.nanoTime() - started);
         }
     }
     
     @Override
     public void registerObserver(BPMObserver o) {
+        if (asyncExecutor != null) {
+            o = AsyncObserver.of(o, asyncExecutor, asyncCapacity, asyncOverflow);
+        }
         bpmObservers.add(o);
+        if (metrics != null) {
+            metrics.addObserver(o);
+        }
     }
     
     public void notifyBPMObservers() {
-        for (int i = 0; i < bpmObservers.size(); i++) {
-            BPMObserver observer = (BPMObserver)bpmObservers.get(i);
+        BeatMetrics metrics = this.metrics;
+        long started = metrics == null ? 0 : System.nanoTime();
+        for (BPMObserver observer : bpmObservers) {
+            long called = metrics == null ? 0 : System.nanoTime();
             observer.updateBPM(); // !!! Can this be refactored to a generic method where it's not required for BeatModel to know the name of the method?
+            if (metrics != null) {
+                metrics.recordObserver(observer, System.nanoTime() - called);
+            }
+        }
+        if (metrics != null) {
+            metrics.bpmDispatch.record(System.nanoTime() - started);
         }
     }
     
+    // An observer registered in async mode is stored wrapped in an
+    // AsyncObserver, so we also have to look at what the wrappers point to.
+    static boolean matches(Object registered, Object o) {
+        return o.equals(registered) || (registered instanceof AsyncObserver
+                && o.equals(((AsyncObserver)registered).getTarget()));
+    }
+    
     @Override
     public void removeObserver(BeatObserver o) {
-        int i = beatObservers.indexOf(o);
-        if (i >= 0) {
-            beatObservers.remove(i);
+        for (BeatObserver registered : beatObservers) {
+            if (matches(registered, o)) {
+                beatObservers.remove(registered);
+                if (metrics != null && !bpmObservers.contains(registered)) {
+                    metrics.removeObserver(registered);
+                }
+                return;
+            }
         }
     } 
     
     @Override
     public void removeObserver(BPMObserver o) {
-        int i = bpmObservers.indexOf(o);
-        if (i >= 0) {
-            bpmObservers.remove(i);
+        for (BPMObserver registered : bpmObservers) {
+            if (matches(registered, o)) {
+                bpmObservers.remove(registered);
+                if (metrics != null && !beatObservers.contains(registered)) {
+                    metrics.removeObserver(registered);
+                }
+                return;
+            }
         }
     }
     
     public void playBeat() {
-        clip.setFramePosition(0);
-        clip.start();
+        if (voices == null) {
+            return; // initialize() couldn't load the clip, or wasn't called
+        }
+        voices.trigger();
     }
     
     public void stopBeat() {
-        clip.setFramePosition(0);
-        clip.stop();
+        if (voices == null) {
+            return;
+        }
+        voices.stop();
     }
 }
@@ -12,6 +12,23 @@ public interface BeatModelInterface {
     
     void setBPM(int bpm); // Sets the beats per minute - after it's called the beat frequency changes immediately
     
+    // Sets the BPM to update only if it's currently expect, in one atomic step:
+    // no other change may come between the check and the set. Returns false if
+    // the BPM was something else. There's no default, because a check followed
+    // by setBPM() isn't atomic and would make adjustBPM() lose updates.
+    boolean compareAndSetBPM(int expect, int update);
+    
+    // Changes the BPM by delta (e.g. +1 or -1) without losing updates when
+    // several threads do it at once, as long as compareAndSetBPM() is atomic.
+    // Returns the new BPM.
+    default int adjustBPM(int delta) {
+        int bpm;
+        do {
+            bpm = getBPM();
+        } while (!compareAndSetBPM(bpm, bpm + delta)); // Retry if it changed
+        return bpm + delta;
+    }
+    
     
     // Methods to allow the view and the controller to get state and to become observers
     int getBPM(); // returns the current BPMs or 0 if the generator is off
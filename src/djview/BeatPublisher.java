@@ -0,0 +1,259 @@
+package djview;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+Offers the model's beat or BPM events as a Flow.Publisher, for consumers that
+want to pull events at their own pace instead of being called back for every
+one of them. The publisher is registered with the model like any observer;
+each event takes an item from the supplier (the beat's nanoTime, the new BPM)
+and hands it to every subscriber.
+
+Every subscriber has its own buffer and its own demand, and is served on the
+executor, never on the beat thread. A slow subscriber only fills its own
+buffer, so it can't hold up the model or the other subscribers. When its
+buffer is full, its overflow strategy decides what happens:
+
+- DROP_OLDEST: the oldest buffered item makes room for the new one.
+- LATEST_ONLY: only the latest item is kept, whatever the buffer size. Right
+  for BPM subscribers, which only care about the current tempo.
+- ERROR: the subscription is cancelled and the subscriber gets onError().
+
+Items for the same subscriber are delivered one at a time and in order (the
+same way as AsyncObserver does it).
+*/
+public class BeatPublisher<T> implements Flow.Publisher<T>, BeatObserver, BPMObserver {
+    public enum Overflow { DROP_OLDEST, LATEST_ONLY, ERROR }
+
+    static final int DEFAULT_BUFFER_SIZE = Flow.defaultBufferSize();
+
+    final Supplier<T> items;
+    final Executor executor;
+    final int bufferSize;
+    final Overflow overflow;
+    final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public BeatPublisher(Supplier<T> items) {
+        this(items, AsyncObserver.DEFAULT_EXECUTOR, DEFAULT_BUFFER_SIZE, Overflow.DROP_OLDEST);
+    }
+
+    // The executor, buffer size and overflow strategy are the defaults for
+    // subscribe(subscriber).
+    public BeatPublisher(Supplier<T> items, Executor executor, int bufferSize,
+            Overflow overflow) {
+        this.items = items;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.overflow = overflow;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, bufferSize, overflow);
+    }
+
+    public void subscribe(Flow.Subscriber<? super T> subscriber, int bufferSize,
+            Overflow overflow) {
+        if (subscriber == null) {
+            throw new NullPointerException();
+        }
+        Subscription subscription = new Subscription(subscriber, bufferSize, overflow);
+        for (Subscription s : subscriptions) {
+            if (s.subscriber.equals(subscriber)) {
+                // A subscriber can only be subscribed once
+                subscription.fail(new IllegalStateException("Already subscribed"));
+                return;
+            }
+        }
+        subscriptions.add(subscription);
+        subscription.signal(); // onSubscribe() is called on the executor too
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void updateBeat() {
+        submit(items.get());
+    }
+
+    @Override
+    public void updateBPM() {
+        submit(items.get());
+    }
+
+    // Hands the item to every subscriber. Never blocks.
+    public void submit(T item) {
+        for (Subscription s : subscriptions) {
+            s.offer(item);
+        }
+    }
+
+    // Completes all subscriptions once they have received what's buffered
+    public void close() {
+        for (Subscription s : subscriptions) {
+            s.complete();
+        }
+    }
+
+    class Subscription implements Flow.Subscription, Runnable {
+        final Flow.Subscriber<? super T> subscriber;
+        final Overflow overflow;
+        final Object[] buffer;  // Ring buffer, guarded by this
+        int head;
+        int count;
+        boolean completed;
+        Throwable error;
+        boolean subscribed;     // Only touched by run()
+        volatile boolean cancelled;
+        final AtomicLong demand = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Subscription(Flow.Subscriber<? super T> subscriber, int bufferSize,
+                Overflow overflow) {
+            this.subscriber = subscriber;
+            this.overflow = overflow;
+            buffer = new Object[overflow == Overflow.LATEST_ONLY ? 1 : Math.max(bufferSize, 1)];
+        }
+
+        void offer(T item) {
+            synchronized (this) {
+                if (cancelled || completed) {
+                    return;
+                }
+                if (count == buffer.length) {
+                    if (overflow == Overflow.ERROR) {
+                        error = new IllegalStateException(
+                                "Subscriber buffer overflow (" + buffer.length + " items)");
+                        subscriptions.remove(this);
+                    } else {
+                        head = (head + 1) % buffer.length;
+                        count--;
+                        dropped.incrementAndGet();
+                    }
+                }
+                if (error == null) {
+                    buffer[(head + count) % buffer.length] = item;
+                    count++;
+                }
+            }
+            signal();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            signal();
+        }
+
+        void fail(Throwable error) {
+            synchronized (this) {
+                this.error = error;
+            }
+            signal();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request(" + n + "), must be positive"));
+                return;
+            }
+            long d;
+            do {
+                d = demand.get();
+            } while (!demand.compareAndSet(d, d + n < 0 ? Long.MAX_VALUE : d + n));
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        // Delivers as many items as the subscriber asked for, on the executor
+        @Override
+        public void run() {
+            for (;;) {
+                drain();
+                scheduled.set(false);
+                // Something may have changed after drain() gave up but before
+                // the flag was cleared. Nobody else will schedule it then.
+                if (!hasWork() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        void drain() {
+            try {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!cancelled) {
+                    T item;
+                    Throwable error;
+                    boolean done;
+                    synchronized (this) {
+                        error = this.error;
+                        done = count == 0 && completed;
+                        if (error == null && !done && (count == 0 || demand.get() == 0)) {
+                            return;
+                        }
+                        if (error != null || done) {
+                            item = null;
+                        } else {
+                            @SuppressWarnings("unchecked")
+                            T next = (T)buffer[head];
+                            item = next;
+                            buffer[head] = null;
+                            head = (head + 1) % buffer.length;
+                            count--;
+                        }
+                    }
+                    if (error != null) {
+                        cancel();
+                        subscriber.onError(error);
+                        return;
+                    } else if (done) {
+                        cancel();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(item);
+                }
+            } catch (Exception ex) {
+                // A subscriber that throws is treated as if it had cancelled
+                cancel();
+                System.out.println("Error: Subscriber failed.");
+                System.out.println(ex);
+            }
+        }
+
+        synchronized boolean hasWork() {
+            if (cancelled) {
+                return false;
+            }
+            return !subscribed || error != null || (count == 0 ? completed : demand.get() > 0);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package djview;
+
+/*
+The BeatScheduler decides WHEN the next beat is due. BeatModel's run() loop
+used to call Thread.sleep(60000/getBPM()) after each beat, which has two
+problems:
+
+- the integer division rounds the interval down (60000/7 = 8571ms instead of
+  8571.43ms), and
+- the time spent in playBeat() and notifyBeatObservers() is added on top of
+  the sleep, so every beat comes a little late and the errors add up.
+
+Instead, every beat's deadline is computed from a fixed System.nanoTime()
+origin: deadline(n) = origin + n * period. A late beat doesn't push the
+following beats back, so the error of one beat never accumulates. If the
+beat thread falls more than a whole period behind, the beats it missed are
+dropped instead of played in a burst, and counted (see advance()).
+
+When the tempo changes, the schedule is re-anchored on the last beat that was
+played, so the next beat comes exactly one new period after it.
+
+The time comes from a BeatClock, the system's unless setClock() says
+otherwise (e.g. a VirtualClock in a soak test).
+*/
+public class BeatScheduler {
+    // How long before the deadline we stop parking and start spinning.
+    // parkNanos() can oversleep by a millisecond or more depending on the OS,
+    // so the last stretch is busy-waited.
+    static final long SPIN_NANOS = 2_000_000L;
+
+    BeatClock clock = BeatClock.SYSTEM;
+    long spinNanos = SPIN_NANOS;
+    long origin;        // nanoTime of the beat the schedule is anchored to
+    long beats;         // beats handed out since origin
+    long period;        // nanoseconds between two beats
+    long due;           // deadline of the beat that was played last
+    long dropped;       // beats skipped because they were too late
+    Thread waiter;      // the thread currently blocked in awaitNextBeat()
+    boolean cancelled;
+
+    public BeatScheduler(int bpm) {
+        period = periodOf(bpm);
+    }
+
+    /*
+    Sets how long before the deadline to stop parking and spin instead. Zero
+    turns spinning off, which is what virtual threads need: a spinning virtual
+    thread holds on to its carrier thread and keeps others from running.
+    */
+    public synchronized void setSpinNanos(long spinNanos) {
+        this.spinNanos = spinNanos;
+    }
+
+    // Call before start()
+    public synchronized void setClock(BeatClock clock) {
+        this.clock = clock;
+    }
+
+    static long periodOf(int bpm) {
+        return 60_000_000_000L / Math.max(bpm, 1);
+    }
+
+    // Anchors the schedule at "now". The first beat is due immediately.
+    public synchronized void start() {
+        origin = clock.nanoTime();
+        beats = 0;
+        dropped = 0;
+        cancelled = false;
+    }
+
+    // Wakes up the waiting thread and makes awaitNextBeat() return false.
+    public synchronized void cancel() {
+        cancelled = true;
+        if (waiter != null) {
+            clock.unpark(waiter);
+        }
+    }
+
+    /*
+    Changing the tempo re-anchors the schedule on the last beat that was
+    played. If the beat thread is waiting, it's woken up so it can pick up the
+    new deadline right away (it might be due earlier than the old one).
+    */
+    public synchronized void setBPM(int bpm) {
+        if (beats > 0) {
+            origin = origin + (beats - 1) * period;
+            beats = 1;
+        }
+        period = periodOf(bpm);
+        if (waiter != null) {
+            clock.unpark(waiter);
+        }
+    }
+
+    /*
+    Moves the beat grid so it lines up with a beat that happened (or will
+    happen) at beatTime, without changing the tempo. The next deadline becomes
+    the grid point closest to where it was, so a small correction nudges the
+    next beat instead of skipping or doubling it. Used to follow another
+    machine's beats (see BeatSyncFollower).
+    */
+    public synchronized void align(long beatTime) {
+        long next = deadline();
+        long k = Math.round((double)(next - beatTime) / period);
+        next = beatTime + k * period;
+        if (next < clock.nanoTime()) {
+            next += period;
+        }
+        origin = next;
+        beats = 0;
+        if (waiter != null) {
+            clock.unpark(waiter);
+        }
+    }
+
+    synchronized long deadline() {
+        return origin + beats * period;
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /*
+    Marks the beat that was due as played and moves on to the next one. A beat
+    is never played more than a period late: the ones that are, are dropped
+    and counted (getDroppedBeats()).
+    */
+    synchronized void advance() {
+        long late = clock.nanoTime() - deadline();
+        if (late > period) {
+            // We fell behind by more than a whole beat (e.g. the machine was
+            // suspended, or a shared timer is overloaded). Rather than firing
+            // a burst of beats to catch up, skip the ones that are already
+            // past and play the latest. The grid stays where it was.
+            long skipped = late / period;
+            beats += skipped;
+            dropped += skipped;
+        }
+        due = deadline();
+        beats++;
+    }
+
+    // Number of beats advance() skipped since start()
+    public synchronized long getDroppedBeats() {
+        return dropped;
+    }
+
+    /*
+    Blocks until the next beat is due. Returns true when it's time to play the
+    beat and false when the scheduler was cancelled in the meantime.
+
+    The deadline is read again on every pass of the loop, since setBPM() can
+    move it while we wait.
+    */
+    public boolean awaitNextBeat() {
+        synchronized (this) {
+            waiter = Thread.currentThread();
+        }
+        try {
+            for (;;) {
+                long deadline;
+                long spinNanos;
+                synchronized (this) {
+                    if (cancelled) {
+                        return false;
+                    }
+                    deadline = deadline();
+                    spinNanos = this.spinNanos;
+                }
+                if (deadline - clock.nanoTime() <= 0) {
+                    break;
+                }
+                clock.await(this, deadline, spinNanos); // Parks, then spins
+            }
+            synchronized (this) {
+                advance();
+                return !cancelled;
+            }
+        } finally {
+            synchronized (this) {
+                waiter = null;
+            }
+        }
+    }
+}
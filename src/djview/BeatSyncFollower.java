@@ -0,0 +1,169 @@
+package djview;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+
+/*
+Makes a local BeatModel play on the same beat as a BeatSyncMaster.
+
+The two machines' System.nanoTime() clocks have nothing to do with each other,
+so first the follower estimates the offset between them the way NTP does. It
+pings the master every PING_INTERVAL_MILLIS; with t1 = ping sent, t2 = ping
+received, t3 = pong sent (master clock) and t4 = pong received:
+
+    offset = ((t2 - t1) + (t3 - t4)) / 2    (master clock - our clock)
+    delay  = (t4 - t1) - (t3 - t2)          (network round trip)
+
+The estimate is only as good as the network is symmetric, and the samples with
+the shortest round trip are the least disturbed by queueing. So of the last
+SAMPLES pings, the one with the smallest delay is used.
+
+Every BEAT packet carries the time the master played the beat. Translated to
+our clock, it's used to line up the local beat grid (BeatModel.align()), so
+the next local beat lands one period after the master's. How long the packet
+took to get here doesn't matter, as long as it arrives before that.
+
+The phase error (how far the local beat grid was off when a BEAT arrived) is
+collected for statistics, see report().
+*/
+public class BeatSyncFollower implements Runnable {
+    static final int PING_INTERVAL_MILLIS = 500;
+    static final int SAMPLES = 8;
+    
+    BeatModel model;
+    SocketAddress master;
+    DatagramSocket socket;
+    Thread thread;
+    
+    // Only touched by the receiving thread
+    long[] offsets = new long[SAMPLES];
+    long[] delays = new long[SAMPLES];
+    int samples;
+    long lastPing;
+    
+    volatile long offset;
+    volatile long delay = Long.MAX_VALUE; // Until the first pong
+    boolean locked; // The local grid has been aligned at least once
+    
+    // Phase error statistics in nanoseconds
+    final RunningStats errors = new RunningStats();
+    
+    public BeatSyncFollower(BeatModel model, SocketAddress master) throws IOException {
+        this.model = model;
+        this.master = master;
+        socket = new DatagramSocket();
+        socket.setSoTimeout(PING_INTERVAL_MILLIS);
+        thread = new Thread(this, "BeatSyncFollower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void close() {
+        try {
+            socket.send(new BeatSyncPacket(BeatSyncPacket.BYE, 0, 0, 0, 0)
+                    .toDatagram(master));
+        } catch (IOException ex) {}
+        socket.close();
+    }
+    
+    // Estimated master clock minus local clock, in nanoseconds
+    public long getOffset() {
+        return offset;
+    }
+    
+    // Round trip of the ping the offset estimate is based on, in nanoseconds
+    public long getDelay() {
+        return delay;
+    }
+    
+    @Override
+    public void run() {
+        byte[] buffer = new byte[BeatSyncPacket.SIZE];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                if (System.nanoTime() - lastPing >= PING_INTERVAL_MILLIS * 1_000_000L) {
+                    lastPing = System.nanoTime();
+                    socket.send(new BeatSyncPacket(BeatSyncPacket.PING, 0,
+                            lastPing, 0, 0).toDatagram(master));
+                }
+                socket.receive(datagram);
+                long received = System.nanoTime();
+                BeatSyncPacket packet = BeatSyncPacket.fromDatagram(datagram);
+                if (packet != null) {
+                    handle(packet, received);
+                }
+            } catch (SocketTimeoutException ex) {
+                // Time to ping again
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    System.out.println("Error: Beat sync failed.");
+                    System.out.println(ex);
+                }
+            }
+        }
+    }
+    
+    void handle(BeatSyncPacket packet, long received) {
+        switch (packet.type) {
+            case BeatSyncPacket.PONG:
+                sample(packet.t1, packet.t2, packet.t3, received);
+                break;
+            case BeatSyncPacket.BPM:
+                if (packet.bpm != model.getBPM()) {
+                    model.setBPM(packet.bpm);
+                }
+                break;
+            case BeatSyncPacket.BEAT:
+                if (delay == Long.MAX_VALUE) {
+                    break; // No idea yet what the master's clock says
+                }
+                if (packet.bpm != model.getBPM()) {
+                    model.setBPM(packet.bpm);
+                }
+                long beat = packet.t1 - offset; // On our clock
+                if (locked) {
+                    record(beat); // Before the first alignment it's just random
+                }
+                model.align(beat);
+                locked = true;
+                break;
+            default:
+                break;
+        }
+    }
+    
+    void sample(long t1, long t2, long t3, long t4) {
+        int i = samples++ % SAMPLES;
+        offsets[i] = ((t2 - t1) + (t3 - t4)) / 2;
+        delays[i] = (t4 - t1) - (t3 - t2);
+        int best = 0;
+        for (int j = 1; j < Math.min(samples, SAMPLES); j++) {
+            if (delays[j] < delays[best]) {
+                best = j;
+            }
+        }
+        offset = offsets[best];
+        delay = delays[best];
+    }
+    
+    // How far the local beat grid is from the master's beat, before aligning
+    void record(long beat) {
+        BeatScheduler scheduler = model.scheduler;
+        long period = BeatScheduler.periodOf(model.getBPM());
+        long distance = scheduler.deadline() - beat;
+        long error = distance - Math.round((double)distance / period) * period;
+        errors.record(error);
+    }
+    
+    public String report() {
+        return String.format("offset %.3fms, round trip %.3fms, "
+                + "phase error mean %.3fms, jitter %.3fms, max %.3fms over %d beats",
+                offset / 1e6, delay == Long.MAX_VALUE ? 0 : delay / 1e6,
+                errors.getMean() / 1e6, errors.getStdDev() / 1e6,
+                errors.getMaxAbs() / 1e6, errors.getCount());
+    }
+}
@@ -0,0 +1,177 @@
+package djview;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Broadcasts the beats and tempo changes of a BeatModel to BeatSyncFollowers on
+other machines (or other JVMs on the same one), over UDP.
+
+The master is just another observer of its model: on every beat and BPM
+change it hands the news to its sender thread, which sends a packet to all
+subscribed followers. The beat thread only stores the beat's time and moves
+on, so neither the sends nor a slow network can hold up the next beat. The
+time sent is the deadline the beat was scheduled for, not when the observer
+got to run, so the followers lock onto the grid itself and not onto how long
+playBeat() and the observers before us took.
+
+Followers subscribe by pinging it; the replies to those pings are what lets
+them estimate the offset between the two clocks (see BeatSyncFollower). A
+follower that hasn't pinged for MISSED_PINGS ping intervals is taken to be
+gone (it crashed, or its BYE got lost) and dropped.
+
+Packets are sent unicast to each follower, so it works on any network, also
+where multicast isn't routed.
+*/
+public class BeatSyncMaster implements BeatObserver, BPMObserver, Runnable {
+    static final int MISSED_PINGS = 4;
+    static final long EXPIRY_NANOS =
+            MISSED_PINGS * BeatSyncFollower.PING_INTERVAL_MILLIS * 1_000_000L;
+    
+    BeatModel model;
+    DatagramSocket socket;
+    Map<SocketAddress, Long> followers = new ConcurrentHashMap<>(); // Last ping
+    Thread thread;
+    Thread sender;
+    
+    // Handed from the observer calls to the sender, guarded by this. Only the
+    // latest beat and tempo matter, so they're just overwritten.
+    long beatTime;
+    boolean beatPending;
+    boolean bpmPending;
+    boolean closed;
+    
+    public BeatSyncMaster(BeatModel model, int port) throws IOException {
+        this.model = model;
+        socket = new DatagramSocket(port);
+        socket.setSoTimeout(BeatSyncFollower.PING_INTERVAL_MILLIS);
+        model.registerObserver((BeatObserver)this);
+        model.registerObserver((BPMObserver)this);
+        thread = new Thread(this, "BeatSyncMaster");
+        thread.setDaemon(true);
+        thread.start();
+        sender = new Thread(this::send, "BeatSyncMaster sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+    
+    public int getFollowerCount() {
+        return followers.size();
+    }
+    
+    public void close() {
+        model.removeObserver((BeatObserver)this);
+        model.removeObserver((BPMObserver)this);
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        socket.close();
+    }
+    
+    // Called on the beat thread right after the beat was played
+    @Override
+    public synchronized void updateBeat() {
+        beatTime = model.scheduler.due;
+        beatPending = true;
+        notifyAll();
+    }
+    
+    @Override
+    public synchronized void updateBPM() {
+        bpmPending = true;
+        notifyAll();
+    }
+    
+    // Sends what the observer calls handed over, on the sender thread, with
+    // one packet and buffer for everything
+    void send() {
+        BeatSyncPacket packet = new BeatSyncPacket(0, 0, 0, 0, 0);
+        ByteBuffer buffer = ByteBuffer.allocate(BeatSyncPacket.SIZE);
+        DatagramPacket datagram = new DatagramPacket(buffer.array(), BeatSyncPacket.SIZE);
+        for (;;) {
+            boolean beat;
+            boolean bpm;
+            synchronized (this) {
+                while (!closed && !beatPending && !bpmPending) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                beat = beatPending;
+                bpm = bpmPending;
+                packet.t1 = beatTime;
+                beatPending = false;
+                bpmPending = false;
+            }
+            packet.bpm = model.getBPM();
+            if (bpm) {
+                packet.type = BeatSyncPacket.BPM;
+                broadcast(packet, buffer, datagram);
+            }
+            if (beat) {
+                packet.type = BeatSyncPacket.BEAT;
+                broadcast(packet, buffer, datagram);
+            }
+        }
+    }
+    
+    void broadcast(BeatSyncPacket packet, ByteBuffer buffer, DatagramPacket datagram) {
+        packet.write(buffer);
+        for (SocketAddress follower : followers.keySet()) {
+            try {
+                datagram.setSocketAddress(follower);
+                socket.send(datagram);
+            } catch (IOException ex) {
+                followers.remove(follower);
+            }
+        }
+    }
+    
+    // Answers pings and keeps track of who's following
+    @Override
+    public void run() {
+        byte[] buffer = new byte[BeatSyncPacket.SIZE];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(datagram);
+                long received = System.nanoTime();
+                BeatSyncPacket packet = BeatSyncPacket.fromDatagram(datagram);
+                if (packet == null) {
+                    continue;
+                }
+                SocketAddress sender = datagram.getSocketAddress();
+                if (packet.type == BeatSyncPacket.PING) {
+                    followers.put(sender, received);
+                    BeatSyncPacket pong = new BeatSyncPacket(BeatSyncPacket.PONG,
+                            model.getBPM(), packet.t1, received, 0);
+                    pong.t3 = System.nanoTime();
+                    socket.send(pong.toDatagram(sender));
+                } else if (packet.type == BeatSyncPacket.BYE) {
+                    followers.remove(sender);
+                }
+            } catch (SocketTimeoutException ex) {
+                // Nobody pinged, see who's gone quiet
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    System.out.println("Error: Beat sync failed.");
+                    System.out.println(ex);
+                }
+            }
+            long now = System.nanoTime();
+            followers.values().removeIf(ping -> now - ping > EXPIRY_NANOS);
+        }
+    }
+}
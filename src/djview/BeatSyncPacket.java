@@ -0,0 +1,68 @@
+package djview;
+
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/*
+The datagrams exchanged between a BeatSyncMaster and its BeatSyncFollowers.
+Every packet has the same fixed layout, 32 bytes, big-endian:
+
+    int  type
+    int  bpm
+    long t1, t2, t3     (System.nanoTime() values, meaning depends on type)
+
+- BEAT  master -> follower: the master played a beat at t1 (master clock)
+- BPM   master -> follower: the tempo changed to bpm
+- PING  follower -> master: sent at t1 (follower clock). Also subscribes the
+        follower to BEAT and BPM packets.
+- PONG  master -> follower: t1 echoed from the PING, received at t2 and sent
+        at t3 (master clock)
+- BYE   follower -> master: unsubscribes
+*/
+public class BeatSyncPacket {
+    static final int SIZE = 32;
+    
+    static final int BEAT = 1;
+    static final int BPM = 2;
+    static final int PING = 3;
+    static final int PONG = 4;
+    static final int BYE = 5;
+    
+    int type;
+    int bpm;
+    long t1;
+    long t2;
+    long t3;
+    
+    BeatSyncPacket(int type, int bpm, long t1, long t2, long t3) {
+        this.type = type;
+        this.bpm = bpm;
+        this.t1 = t1;
+        this.t2 = t2;
+        this.t3 = t3;
+    }
+    
+    DatagramPacket toDatagram(SocketAddress address) {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        write(buffer);
+        return new DatagramPacket(buffer.array(), SIZE, address);
+    }
+    
+    // Into a buffer of at least SIZE bytes that's reused for every packet
+    void write(ByteBuffer buffer) {
+        buffer.clear();
+        buffer.putInt(type).putInt(bpm).putLong(t1).putLong(t2).putLong(t3);
+    }
+    
+    // Returns null for datagrams that aren't ours
+    static BeatSyncPacket fromDatagram(DatagramPacket datagram) {
+        if (datagram.getLength() != SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(datagram.getData(),
+                datagram.getOffset(), SIZE);
+        return new BeatSyncPacket(buffer.getInt(), buffer.getInt(),
+                buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,52 @@
+package djview;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+
+/*
+Runs a headless beat sync master or follower, so the protocol can be tried
+with several JVMs on one machine:
+
+    java djview.BeatSyncTestDrive master 9876
+    java djview.BeatSyncTestDrive follower localhost:9876
+
+The master takes the same commands on stdin as HeadlessTestDrive. A follower
+prints its offset and jitter statistics every few seconds.
+*/
+public class BeatSyncTestDrive {
+    static final int REPORT_INTERVAL_MILLIS = 5000;
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: master <port> | follower <host>:<port>");
+            return;
+        }
+        BeatModel model = new BeatModel();
+        ControllerInterface controller = new HeadlessController(model);
+        
+        if (args[0].equals("master")) {
+            BeatSyncMaster master = new BeatSyncMaster(model, Integer.parseInt(args[1]));
+            controller.start();
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = in.readLine()) != null
+                    && HeadlessTestDrive.execute(controller, line.trim())) {
+                System.out.println(master.getFollowerCount() + " followers");
+            }
+            master.close();
+        } else {
+            int colon = args[1].lastIndexOf(':');
+            InetSocketAddress address = new InetSocketAddress(args[1].substring(0, colon),
+                    Integer.parseInt(args[1].substring(colon + 1)));
+            BeatSyncFollower follower = new BeatSyncFollower(model, address);
+            controller.start();
+            for (;;) {
+                Thread.sleep(REPORT_INTERVAL_MILLIS);
+                System.out.println(follower.report());
+            }
+        }
+        controller.stop();
+        System.exit(0);
+    }
+}
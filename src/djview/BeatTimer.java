@@ -0,0 +1,17 @@
+package djview;
+
+/*
+Something that plays beats for a BeatModel when its BeatScheduler says they're
+due. By default every BeatModel runs its own beat thread (see BeatModel.run()),
+which limits how many models can run in one JVM. A BeatTimer lets many models
+share a few threads instead (see SharedBeatTimer).
+*/
+public interface BeatTimer {
+    
+    // Calls beat.run() whenever the schedule is due, until it's cancelled
+    void schedule(BeatScheduler schedule, Runnable beat);
+    
+    // The schedule's tempo changed, so its next beat may be due earlier
+    void reschedule(BeatScheduler schedule);
+    
+}
@@ -0,0 +1,226 @@
+package djview;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import javax.swing.JComponent;
+
+/*
+Shows the beat without going through the look and feel. On the left a square
+flashes on every beat and fades out; on the right the last few seconds of
+beats scroll by, each one drawn as a line whose height shows how early (down)
+or late (up) it came compared to the tempo it was played at.
+
+A BeatBar repaints all of itself through the look and feel's painter on every
+tick. This view only asks for the part that changed: the square while it
+fades, the history when it has moved by at least a pixel. The history is kept
+in an image (a VolatileImage, so it can live in video memory) that is scrolled
+with copyArea(), and only the newly exposed pixels at its right edge are
+drawn. The image is drawn from scratch only when it's created or its contents
+were lost.
+
+Like BeatBar, it's animated by the AnimationClock, on the EDT, and only while
+something on it is still moving.
+*/
+public class BeatView extends JComponent implements AnimationClock.Animated {
+    static final int PULSE_WIDTH = 24;
+    static final int HISTORY = 64;                      // Beats remembered
+    static final long HISTORY_NANOS = 4_000_000_000L;   // Time shown in the history
+    static final long TOLERANCE_NANOS = 20_000_000L;    // Deviation drawn at full height
+    static final int LEVELS = 32;
+
+    // Precomputed, so painting allocates nothing
+    static final Color[] PULSE_COLORS = new Color[LEVELS];
+    static final Color ON_TIME = new Color(80, 200, 80);
+    static final Color OFF = new Color(230, 160, 40);
+    static final Color WAY_OFF = new Color(230, 60, 40);
+    static final Color GRID = new Color(60, 60, 60);
+    static {
+        for (int i = 0; i < LEVELS; i++) {
+            // Opaque, already faded into the black background: no blending
+            PULSE_COLORS[i] = new Color(255 * i / (LEVELS - 1), 140 * i / (LEVELS - 1), 0);
+        }
+    }
+
+    BeatModelInterface model;
+    float level;                        // Brightness of the pulse, 1 on a beat
+    long[] beats = new long[HISTORY];   // nanoTime of the last beats (ring)
+    long[] periods = new long[HISTORY]; // The period at the time of each beat
+    int next;
+    int count;
+    Image buffer;       // The history, VolatileImage unless there's no screen
+    long bufferTime;    // nanoTime shown at the right edge of the buffer
+    boolean offscreen;  // No VolatileImage to be had even on screen
+
+    public BeatView(BeatModelInterface model) {
+        this.model = model;
+        setOpaque(true);
+        setBackground(Color.BLACK);
+        setPreferredSize(new Dimension(160, 24));
+    }
+
+    // Called on the EDT for every beat, with the nanoTime it was played at
+    public void pulse(long beatTime) {
+        beats[next] = beatTime;
+        periods[next] = BeatScheduler.periodOf(model.getBPM());
+        next = (next + 1) % HISTORY;
+        count = Math.min(count + 1, HISTORY);
+        level = 1;
+        repaint(0, 0, PULSE_WIDTH, getHeight());
+        AnimationClock.shared().animate(this);
+    }
+
+    // Called by the AnimationClock. Returns false once nothing moves anymore.
+    @Override
+    public boolean tick() {
+        if (level > 0) {
+            int before = shade(level);
+            level = level < 0.02f ? 0 : level * .75f;
+            if (shade(level) != before) {
+                repaint(0, 0, PULSE_WIDTH, getHeight());
+            }
+        }
+        long now = AnimationClock.shared().nanoTime();
+        if (now - bufferTime >= nanosPerPixel()) {
+            repaint(PULSE_WIDTH, 0, getWidth() - PULSE_WIDTH, getHeight());
+        }
+        long last = beats[(next + HISTORY - 1) % HISTORY];
+        return level > 0 || (count > 0 && now - last < HISTORY_NANOS);
+    }
+
+    static int shade(float level) {
+        return (int)(level * (LEVELS - 1));
+    }
+
+    long nanosPerPixel() {
+        return HISTORY_NANOS / Math.max(getWidth() - PULSE_WIDTH, 1);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        int height = getHeight();
+        if (clip == null || clip.x < PULSE_WIDTH) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, PULSE_WIDTH, height);
+            g.setColor(PULSE_COLORS[shade(level)]);
+            g.fillRect(2, 2, PULSE_WIDTH - 4, height - 4);
+        }
+        if (clip == null || clip.x + clip.width > PULSE_WIDTH) {
+            paintHistory(g);
+        }
+    }
+
+    void paintHistory(Graphics g) {
+        int width = getWidth() - PULSE_WIDTH;
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        long now = AnimationClock.shared().nanoTime();
+        do {
+            boolean valid = validateBuffer(width, height);
+            Graphics2D graphics = (Graphics2D)buffer.getGraphics();
+            try {
+                if (valid) {
+                    scroll(graphics, width, height, now);
+                } else {
+                    bufferTime = now;
+                    drawHistory(graphics, 0, width, height);
+                }
+            } finally {
+                graphics.dispose();
+            }
+            g.drawImage(buffer, PULSE_WIDTH, 0, null);
+        } while (buffer instanceof VolatileImage && ((VolatileImage)buffer).contentsLost());
+    }
+
+    /*
+    Makes sure there's a buffer of the right size. Returns false if it has to
+    be drawn from scratch: it's new, or it's a VolatileImage whose contents
+    were lost (e.g. the display mode changed).
+    */
+    boolean validateBuffer(int width, int height) {
+        if (buffer != null
+                && (buffer.getWidth(null) != width || buffer.getHeight(null) != height)) {
+            buffer.flush();
+            buffer = null;
+        }
+        if (buffer instanceof VolatileImage) {
+            int state = ((VolatileImage)buffer).validate(getGraphicsConfiguration());
+            if (state == VolatileImage.IMAGE_OK) {
+                return true;
+            } else if (state == VolatileImage.IMAGE_RESTORED) {
+                return false;
+            }
+            buffer.flush(); // Incompatible with the screen it's on now
+            buffer = null;
+        } else if (buffer != null && (!isDisplayable() || offscreen)) {
+            return true;
+        }
+        // Swapped for a VolatileImage once the view is on screen. Headless,
+        // or with a pipeline that has none, it stays a BufferedImage.
+        buffer = createVolatileImage(width, height);
+        offscreen = buffer == null && isDisplayable();
+        if (buffer == null) {
+            buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        return false;
+    }
+
+    // Moves the history left by the whole pixels that passed since the last
+    // time and draws what came in on the right
+    void scroll(Graphics2D graphics, int width, int height, long now) {
+        long nanosPerPixel = nanosPerPixel();
+        int dx = (int)((now - bufferTime) / nanosPerPixel);
+        if (dx <= 0) {
+            return;
+        }
+        if (dx >= width) {
+            bufferTime = now;
+            drawHistory(graphics, 0, width, height);
+            return;
+        }
+        bufferTime += dx * nanosPerPixel;
+        graphics.copyArea(dx, 0, width - dx, height, -dx, 0);
+        drawHistory(graphics, width - dx, width, height);
+    }
+
+    // Draws the part of the history from x = from to the right edge
+    void drawHistory(Graphics2D graphics, int from, int width, int height) {
+        graphics.setColor(getBackground());
+        graphics.fillRect(from, 0, width - from, height);
+        graphics.setColor(GRID);
+        graphics.drawLine(from, height / 2, width - 1, height / 2);
+
+        long nanosPerPixel = nanosPerPixel();
+        for (int i = 0; i < count; i++) {
+            int index = (next + HISTORY - 1 - i) % HISTORY;
+            if (beats[index] > bufferTime) {
+                continue; // Not there yet, the next scroll draws it
+            }
+            int x = (int)(width - 1 - (bufferTime - beats[index]) / nanosPerPixel);
+            if (x < from) {
+                break; // The rest is further left, and already drawn
+            }
+            long deviation = 0;
+            if (i + 1 < count) {
+                int previous = (index + HISTORY - 1) % HISTORY;
+                deviation = beats[index] - beats[previous] - periods[index];
+            }
+            long size = Math.abs(deviation);
+            graphics.setColor(size < TOLERANCE_NANOS / 10 ? ON_TIME
+                    : size < TOLERANCE_NANOS ? OFF : WAY_OFF);
+            int length = (int)(Math.min(size, TOLERANCE_NANOS) * (height / 2)
+                    / TOLERANCE_NANOS);
+            int y = height / 2;
+            graphics.drawLine(x, y - 2 - (deviation > 0 ? length : 0),
+                    x, y + 2 + (deviation < 0 ? length : 0));
+        }
+    }
+}
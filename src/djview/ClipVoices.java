@@ -0,0 +1,193 @@
+package djview;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Line;
+
+/*
+A fixed pool of Clips that all hold the same sample, so a beat can start
+while the previous one is still ringing instead of rewinding and cutting it
+off. All clips are opened up front, so triggering never opens a line and the
+number of lines in use is bounded by the size of the pool.
+
+A beat goes to a voice that has finished playing. When all of them are still
+playing, one is stolen and restarted, either the one started longest ago
+(OLDEST) or the one that's currently the quietest (QUIETEST). How loud a
+voice is at a given moment comes from the sample's envelope, the peak level
+of every block of ENVELOPE_FRAMES frames, computed once when the sample is
+loaded.
+
+Which voice is playing and how far it got is tracked here with nanoTime
+rather than asked from the clips, since a clip only reports itself active
+some time after start(). Picking a voice is a loop over a few arrays and
+allocates nothing.
+*/
+public class ClipVoices {
+    public enum Stealing { OLDEST, QUIETEST }
+
+    static final int DEFAULT_VOICES = 8;
+    static final int ENVELOPE_FRAMES = 256;
+
+    final Clip[] clips;     // null entries in a dry run, see below
+    final long[] started;   // nanoTime each voice was last triggered at
+    final Stealing stealing;
+    final float[] envelope; // Peak level (0..1) per block of frames
+    final double nanosPerFrame;
+    final long length;      // Of the sample, in nanoseconds
+    long triggers;
+    long stolen;
+
+    // Opens `count` clips with a sample that's already decoded in the bank.
+    // Fewer voices are used if the mixer runs out of lines, but at least one
+    // has to open.
+    public ClipVoices(SampleBank bank, int id, int count, Stealing stealing) throws Exception {
+        this(bank.getFormat(id), bytes(bank.get(id)), count, stealing);
+    }
+
+    // The same, with a sample that's decoded here
+    public ClipVoices(AudioInputStream in, int count, Stealing stealing) throws Exception {
+        this(pcm(in.getFormat()),
+                AudioSystem.getAudioInputStream(pcm(in.getFormat()), in).readAllBytes(),
+                count, stealing);
+    }
+
+    // data is 16-bit signed little-endian PCM in the format pcm
+    ClipVoices(AudioFormat pcm, byte[] data, int count, Stealing stealing) throws Exception {
+        Clip[] clips = new Clip[count];
+        int opened = 0;
+        Exception failure = null;
+        for (; opened < count; opened++) {
+            try {
+                clips[opened] = (Clip) AudioSystem.getLine(new Line.Info(Clip.class));
+                clips[opened].open(pcm, data, 0, data.length);
+            } catch (Exception ex) {
+                failure = ex;
+                break;
+            }
+        }
+        if (opened == 0) {
+            throw failure;
+        }
+        this.clips = Arrays.copyOf(clips, opened);
+        this.started = new long[opened];
+        this.stealing = stealing;
+        this.envelope = envelope(data, pcm.getChannels());
+        this.nanosPerFrame = 1e9 / pcm.getSampleRate();
+        this.length = (long)(data.length / pcm.getFrameSize() * nanosPerFrame);
+    }
+
+    /*
+    A pool without any lines, that only does the bookkeeping. Lets the voice
+    allocation be measured on machines without an audio device (see
+    VoicePoolStress).
+    */
+    ClipVoices(byte[] data, AudioFormat pcm, int count, Stealing stealing) {
+        this.clips = new Clip[count];
+        this.started = new long[count];
+        this.stealing = stealing;
+        this.envelope = envelope(data, pcm.getChannels());
+        this.nanosPerFrame = 1e9 / pcm.getSampleRate();
+        this.length = (long)(data.length / pcm.getFrameSize() * nanosPerFrame);
+    }
+
+    static AudioFormat pcm(AudioFormat format) {
+        return new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+    }
+
+    // A Clip needs the sample as bytes of its own
+    static byte[] bytes(ShortBuffer samples) {
+        ByteBuffer data = ByteBuffer.allocate(samples.limit() * 2).order(ByteOrder.LITTLE_ENDIAN);
+        data.asShortBuffer().put(samples.duplicate());
+        return data.array();
+    }
+
+    static float[] envelope(byte[] data, int channels) {
+        int frames = data.length / (2 * channels);
+        float[] envelope = new float[(frames + ENVELOPE_FRAMES - 1) / ENVELOPE_FRAMES];
+        for (int f = 0; f < frames; f++) {
+            for (int c = 0; c < channels; c++) {
+                int b = (f * channels + c) * 2;
+                int sample = Math.abs((short)((data[b] & 0xff) | (data[b + 1] << 8)));
+                int block = f / ENVELOPE_FRAMES;
+                envelope[block] = Math.max(envelope[block], sample / 32768f);
+            }
+        }
+        return envelope;
+    }
+
+    public int getVoiceCount() {
+        return started.length;
+    }
+
+    public long getTriggers() {
+        return triggers;
+    }
+
+    // Beats that had to cut off a voice that was still playing
+    public long getStolen() {
+        return stolen;
+    }
+
+    // Plays the sample from the start on a free voice, or a stolen one
+    public void trigger() {
+        long now = System.nanoTime();
+        int v = pick(now);
+        started[v] = now;
+        triggers++;
+        Clip clip = clips[v];
+        if (clip != null) {
+            clip.stop();
+            clip.setFramePosition(0);
+            clip.start();
+        }
+    }
+
+    // The voice for a beat at `now`
+    int pick(long now) {
+        int best = 0;
+        float bestLevel = Float.MAX_VALUE;
+        for (int v = 0; v < started.length; v++) {
+            long played = now - started[v];
+            if (started[v] == 0 || played >= length) {
+                return v; // Done playing (or never played)
+            }
+            float level = stealing == Stealing.OLDEST ? -played : level(played);
+            if (level < bestLevel) {
+                bestLevel = level;
+                best = v;
+            }
+        }
+        stolen++;
+        return best;
+    }
+
+    // How loud the sample is `played` nanoseconds after its start
+    float level(long played) {
+        int block = (int)(played / nanosPerFrame) / ENVELOPE_FRAMES;
+        return block < envelope.length ? envelope[block] : 0;
+    }
+
+    // Silences all voices
+    public void stop() {
+        for (int v = 0; v < started.length; v++) {
+            started[v] = 0;
+            if (clips[v] != null) {
+                clips[v].stop();
+            }
+        }
+    }
+
+    public void close() {
+        for (Clip clip : clips) {
+            if (clip != null) {
+                clip.close();
+            }
+        }
+    }
+}
@@ -3,7 +3,8 @@ package djview;
 public class DJTestDrive {
 
     // Entry point for the application
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        LaunchTimer timer = new LaunchTimer();
         
         /* 
         1. Create a new model instance, the base for our application which holds 
@@ -18,7 +19,17 @@ public class DJTestDrive {
         so we don't have to do that.
         => Continued in BeatController.java
         */
-        ControllerInterface controller = new BeatController(model);
+        BeatController controller = new BeatController(model);
+        
+        // Time to first playable beat: the model is initialized and the view
+        // is up (the controls are built when they're first shown). With -Ddjview.exitWhenReady=true the application
+        // quits right then, which is what a CDS training run needs (see the
+        // cds target in build.xml).
+        controller.awaitReady();
+        System.out.println(timer.ready());
+        if (Boolean.getBoolean("djview.exitWhenReady")) {
+            System.exit(0);
+        }
     }
     
 }
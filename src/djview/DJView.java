@@ -15,13 +15,14 @@ import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 public class DJView implements ActionListener, BeatObserver, BPMObserver {
     BeatModelInterface model;
     ControllerInterface controller;
     JFrame viewFrame;
     JPanel viewPanel;
-    BeatBar beatBar;
+    BeatView beatView;
     JLabel bpmOutputLabel;
     JFrame controlFrame;
     JPanel controlPanel;
@@ -34,6 +35,10 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
     JMenu menu;
     JMenuItem startMenuItem;
     JMenuItem stopMenuItem;
+    // What the Start/Stop items should show, also while there are no controls
+    // yet (see showControls())
+    boolean startEnabled = true;
+    boolean stopEnabled = false;
     
     /* 5. The DJView's constructor creates references to both the controller 
     and the model. It also registers the view as an Observer of the model
@@ -65,17 +70,40 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
         
         viewFrame.setSize(new Dimension(100, 80));
         bpmOutputLabel = new JLabel("offline", SwingConstants.CENTER);
-        beatBar = new BeatBar();
-        beatBar.setValue(0);
+        bpmOutputLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        beatView = new BeatView(model);
         JPanel bpmPanel = new JPanel(new GridLayout(2, 1));
-        bpmPanel.add(beatBar);
+        bpmPanel.add(beatView);
         bpmPanel.add(bpmOutputLabel);
         viewPanel.add(bpmPanel);
         viewFrame.getContentPane().add(viewPanel, BorderLayout.CENTER);
+        
+        // The controls are only built when they're first asked for
+        JMenuBar viewMenuBar = new JMenuBar();
+        JMenu viewMenu = new JMenu("DJ Control");
+        JMenuItem controls = new JMenuItem("Controls");
+        controls.addActionListener((ActionEvent event) -> showControls());
+        viewMenu.add(controls);
+        viewMenuBar.add(viewMenu);
+        viewFrame.setJMenuBar(viewMenuBar);
+        
         viewFrame.pack();
         viewFrame.setVisible(true);
     }
     
+    /*
+    Shows the control frame, building it the first time. Starting up only
+    needs the view frame, so the controls don't cost anything until the user
+    wants them. Call on the Event Dispatch Thread.
+    */
+    public void showControls() {
+        if (controlFrame == null) {
+            createControls();
+        } else {
+            controlFrame.setVisible(true);
+        }
+    }
+    
     public void createControls() {
         JFrame.setDefaultLookAndFeelDecorated(true);
         controlFrame = new JFrame("Control");
@@ -95,6 +123,7 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
         not directly (loose coupling).
         */
         startMenuItem = new JMenuItem("Start");
+        startMenuItem.setEnabled(startEnabled);
         menu.add(startMenuItem);
         startMenuItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent event) {
@@ -103,6 +132,7 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
         });
         
         stopMenuItem = new JMenuItem("Stop");
+        stopMenuItem.setEnabled(stopEnabled);
         menu.add(stopMenuItem);
         stopMenuItem.addActionListener((ActionEvent event) -> {
             controller.stop();
@@ -145,7 +175,6 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
         controlPanel.add(insideControlPanel);
         
         bpmLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-        bpmOutputLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         
         controlFrame.getRootPane().setDefaultButton(setBPMButton);
         controlFrame.getContentPane().add(controlPanel, BorderLayout.CENTER);
@@ -155,19 +184,34 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
     }
     
     public void enableStopMenuItem() {
-        stopMenuItem.setEnabled(true);
+        setStopEnabled(true);
     }
     
     public void disableStopMenuItem() {
-        stopMenuItem.setEnabled(false);
+        setStopEnabled(false);
     }
     
     public void enableStartMenuItem() {
-        startMenuItem.setEnabled(true);
+        setStartEnabled(true);
     }
     
     public void disableStartMenuItem() {
-        startMenuItem.setEnabled(false);
+        setStartEnabled(false);
+    }
+    
+    // The items only exist once the controls were shown
+    void setStartEnabled(boolean enabled) {
+        startEnabled = enabled;
+        if (startMenuItem != null) {
+            startMenuItem.setEnabled(enabled);
+        }
+    }
+    
+    void setStopEnabled(boolean enabled) {
+        stopEnabled = enabled;
+        if (stopMenuItem != null) {
+            stopMenuItem.setEnabled(enabled);
+        }
     }
     
     /* actionPerformed() is the only abstract method of the ActionListener 
@@ -206,19 +250,35 @@ public class DJView implements ActionListener, BeatObserver, BPMObserver {
     
     !!! Can this be refactored in a way where the BeatModel doesn't need to know
     the method's name? !!!
+    
+    Like updateBeat(), it can be called on any thread (the beat thread, or the
+    model's notifier when BPM changes are merged), so the label is updated on
+    the EDT.
     */
     @Override
     public void updateBPM() {
-        int bpm = model.getBPM(); // Using the model's API to get information about the new state
-        if (bpm == 0) {
-            bpmOutputLabel.setText("offline");
-        } else {
-            bpmOutputLabel.setText("Current BPM: " + model.getBPM());
-        }
+        SwingUtilities.invokeLater(() -> {
+            int bpm = model.getBPM(); // Using the model's API to get information about the new state
+            if (bpm == 0) {
+                bpmOutputLabel.setText("offline");
+            } else {
+                bpmOutputLabel.setText("Current BPM: " + bpm);
+            }
+        });
     }
     
+    /* updateBeat() is called on the model's beat thread, but Swing components
+    may only be touched on the Event Dispatch Thread, so the pulse is handed
+    over to it. The time of the beat is taken here, so the history shows when
+    the beat was played and not when the EDT got to it. It comes from the
+    AnimationClock the BeatView animates by, so the two agree also when that
+    isn't the system clock (e.g. a VirtualClock in a soak test).
+    */
     @Override
     public void updateBeat() {
-        beatBar.setValue(100);  // At every pulse, the progression's bar value 
-    }                           // is set to 100 and it's left to handle the 
-}                               // corresponding animation on its own.
+        long beat = AnimationClock.shared().nanoTime();
+        SwingUtilities.invokeLater(() -> beatView.pulse(beat)); // At every
+    }                                   // pulse, the view flashes and the beat
+}                                       // is added to its history. The shared
+                                        // AnimationClock handles the fading
+                                        // and scrolling.
@@ -0,0 +1,132 @@
+package djview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+Records what happens in a BeatModel (beats, BPM changes, start and stop) to a
+binary log file that can be played back later with EventReplayer.
+
+The file is a HEADER_SIZE byte header followed by fixed-size records of
+RECORD_SIZE bytes:
+
+    long time    nanoseconds since the recording started
+    int  type    BEAT, BPM, START or STOP
+    int  value   the BPM for BPM records, 0 otherwise
+
+Records are only ever appended, straight into a memory-mapped window of the
+file that's moved along in SEGMENT_SIZE steps. Writing a record is a few puts
+into memory, so millions of events per second can be recorded without any
+garbage. The OS writes the pages to disk in the background.
+
+A record of type 0 marks the end, so the file isn't trimmed to the records
+that were written: it ends with the rest of the last window, all zeros (on
+most file systems sparse, so it takes no space). Trimming it would mean
+truncating a file that's still mapped, which fails on Windows, and Java has
+no way to unmap it first. A file that wasn't closed properly reads the same
+way.
+*/
+public class EventRecorder implements BeatObserver, BPMObserver {
+    static final int MAGIC = 0x444a4c47; // "DJLG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 16;
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    
+    static final int BEAT = 1;
+    static final int BPM = 2;
+    static final int START = 3;
+    static final int STOP = 4;
+    
+    BeatModelInterface model;
+    RandomAccessFile file;
+    FileChannel channel;
+    MappedByteBuffer segment;
+    long segmentStart;      // File offset of the mapped window
+    long position;          // File offset of the next record
+    long started;
+    long records;
+    
+    public EventRecorder(File log) throws IOException {
+        file = new RandomAccessFile(log, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        map(0);
+        started = System.nanoTime();
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, System.currentTimeMillis());
+        position = HEADER_SIZE;
+    }
+    
+    // Records everything that happens in the model from now on
+    public void attach(BeatModelInterface model) {
+        this.model = model;
+        model.registerObserver((BeatObserver)this);
+        model.registerObserver((BPMObserver)this);
+    }
+    
+    void map(long start) throws IOException {
+        segmentStart = start;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_SIZE);
+    }
+    
+    public synchronized void record(int type, int value) {
+        if (segment == null) {
+            return; // Closed
+        }
+        if (position + RECORD_SIZE > segmentStart + SEGMENT_SIZE) {
+            try {
+                map(position);
+            } catch (IOException ex) {
+                System.out.println("Error: Can't extend the event log.");
+                System.out.println(ex);
+                return;
+            }
+        }
+        int offset = (int)(position - segmentStart);
+        segment.putLong(offset, System.nanoTime() - started);
+        segment.putInt(offset + 12, value);
+        segment.putInt(offset + 8, type); // Last, it's what marks the record as there
+        position += RECORD_SIZE;
+        records++;
+    }
+    
+    public synchronized long getRecords() {
+        return records;
+    }
+    
+    @Override
+    public void updateBeat() {
+        record(BEAT, 0);
+    }
+    
+    @Override
+    public void updateBPM() {
+        record(BPM, model == null ? 0 : model.getBPM());
+    }
+    
+    public void recordStart() {
+        record(START, 0);
+    }
+    
+    public void recordStop() {
+        record(STOP, 0);
+    }
+    
+    public synchronized void close() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        if (model != null) {
+            model.removeObserver((BeatObserver)this);
+            model.removeObserver((BPMObserver)this);
+        }
+        segment.force();
+        segment = null; // Unmapped once it's collected
+        file.close();
+    }
+}
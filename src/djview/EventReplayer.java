@@ -0,0 +1,109 @@
+package djview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Plays a log written by EventRecorder back into a BeatModel, so its observers
+(views, other recorders, ...) see the session again: BPM records become
+setBPM() calls and BEAT records notifyBeatObservers() calls. The model doesn't
+need to be on, and shouldn't be, or its own beats get mixed in.
+
+Replaying in realtime keeps the original timing between events. Otherwise the
+events are fed as fast as the observers take them.
+
+The records can also be read raw, through a Listener.
+
+The file is memory-mapped in windows of EventRecorder.SEGMENT_SIZE, so reading
+it doesn't create any garbage either.
+*/
+public class EventReplayer {
+    
+    public interface Listener {
+        void event(long nanos, int type, int value);
+    }
+    
+    File log;
+    volatile boolean stop;
+    volatile Thread replaying;
+    
+    public EventReplayer(File log) {
+        this.log = log;
+    }
+    
+    // Also cuts short the wait for the next event when replaying in realtime
+    public void stop() {
+        stop = true;
+        Thread thread = replaying;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+    
+    // Returns the number of events replayed
+    public long replay(BeatModel model, boolean realtime) throws IOException {
+        return replay((nanos, type, value) -> {
+            if (type == EventRecorder.BEAT) {
+                model.notifyBeatObservers();
+            } else if (type == EventRecorder.BPM) {
+                model.setBPM(value);
+            }
+        }, realtime);
+    }
+    
+    public long replay(Listener listener, boolean realtime) throws IOException {
+        stop = false;
+        replaying = Thread.currentThread();
+        long events = 0;
+        try (RandomAccessFile file = new RandomAccessFile(log, "r");
+                FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            MappedByteBuffer segment = map(channel, 0, size);
+            if (size < EventRecorder.HEADER_SIZE
+                    || segment.getInt(0) != EventRecorder.MAGIC) {
+                throw new IOException(log + " is not an event log");
+            }
+            long segmentStart = 0;
+            long position = EventRecorder.HEADER_SIZE;
+            long started = System.nanoTime();
+            while (!stop && position + EventRecorder.RECORD_SIZE <= size) {
+                if (position + EventRecorder.RECORD_SIZE
+                        > segmentStart + segment.capacity()) {
+                    segmentStart = position;
+                    segment = map(channel, segmentStart, size);
+                }
+                int offset = (int)(position - segmentStart);
+                long time = segment.getLong(offset);
+                int type = segment.getInt(offset + 8);
+                int value = segment.getInt(offset + 12);
+                if (type == 0) {
+                    break; // The end of a log that wasn't closed
+                }
+                if (realtime) {
+                    long wait;
+                    while (!stop && (wait = started + time - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                    if (stop) {
+                        break;
+                    }
+                }
+                listener.event(time, type, value);
+                position += EventRecorder.RECORD_SIZE;
+                events++;
+            }
+        } finally {
+            replaying = null;
+        }
+        return events;
+    }
+    
+    static MappedByteBuffer map(FileChannel channel, long start, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(EventRecorder.SEGMENT_SIZE, size - start));
+    }
+}
@@ -0,0 +1,55 @@
+package djview;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/*
+The kind of threads BeatModel runs its beat loop on, and that asynchronous
+observers can be delivered on (see BeatModel.setExecutionMode() and
+setAsyncDelivery()).
+
+- PLATFORM: regular threads, one OS thread each. This is what `new Thread()`
+  gives us.
+- VIRTUAL: virtual threads (Java 21+). They're cheap to create and park, so
+  hundreds of thousands of models can each have their own beat loop. On an
+  older JVM there are no virtual threads, and VIRTUAL falls back to PLATFORM.
+
+Virtual threads are looked up by reflection, so the project still compiles
+and runs on the Java versions it did before.
+*/
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+    
+    static final ThreadFactory VIRTUAL_FACTORY = lookupVirtualFactory();
+    
+    static ThreadFactory lookupVirtualFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception ex) {
+            return null; // Not available on this JVM
+        }
+    }
+    
+    // Whether this mode really gets the threads it asks for on this JVM
+    public boolean isSupported() {
+        return this == PLATFORM || VIRTUAL_FACTORY != null;
+    }
+    
+    public Thread newThread(Runnable task) {
+        if (this == VIRTUAL && VIRTUAL_FACTORY != null) {
+            return VIRTUAL_FACTORY.newThread(task);
+        }
+        return new Thread(task);
+    }
+    
+    // An Executor that runs every task on a new thread of this mode. Meant for
+    // virtual threads; with platform threads a pool is usually the better fit.
+    public Executor executor() {
+        return task -> newThread(task).start();
+    }
+}
@@ -0,0 +1,24 @@
+package djview;
+
+/*
+A controller for running the beat engine without a GUI, e.g. on a server or a
+CI node without a display. It does the same as BeatController, minus the view:
+it turns the model on and off and changes its tempo (see AbstractController).
+
+Nothing here touches Swing or AWT, so those classes are never loaded and the
+startup cost of the toolkit is never paid.
+*/
+public class HeadlessController extends AbstractController implements BPMObserver {
+    
+    public HeadlessController(BeatModelInterface model) {
+        super(model);
+        model.registerObserver(this);
+        model.initialize();
+    }
+    
+    // Instead of a label, the current tempo goes to the console
+    @Override
+    public void updateBPM() {
+        System.out.println("Current BPM: " + model.getBPM());
+    }
+}
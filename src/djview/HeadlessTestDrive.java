@@ -0,0 +1,75 @@
+package djview;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Entry point for running the beat engine without Swing. The commands map onto
+ControllerInterface:
+
+    start | stop | + | - | <bpm> | quit
+
+They're taken from the command line, e.g. `start 120`, and then read from
+stdin, one per line, until "quit" or the end of the input.
+*/
+public class HeadlessTestDrive {
+    
+    public static void main(String[] args) throws Exception {
+        LaunchTimer timer = new LaunchTimer();
+        BeatModelInterface model = new BeatModel();
+        ControllerInterface controller = new HeadlessController(model);
+        System.out.println(timer.ready());
+        
+        List<String> commands = Arrays.asList(args);
+        if (commands.stream().allMatch(command -> execute(controller, command))) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!execute(controller, line.trim())) {
+                    break;
+                }
+            }
+        }
+        controller.stop();
+        System.exit(0);
+    }
+    
+    // Returns false when it's time to quit
+    static boolean execute(ControllerInterface controller, String command) {
+        if (command.equals("quit")) {
+            return false;
+        }
+        if (!command.isEmpty() && !control(controller, command)) {
+            System.out.println("Unknown command: " + command);
+        }
+        return true;
+    }
+    
+    // The commands every front end takes: start, stop, +, - and a BPM. Returns
+    // false if it's none of them (see also RemoteControlServer).
+    static boolean control(ControllerInterface controller, String command) {
+        switch (command) {
+            case "start":
+                controller.start();
+                return true;
+            case "stop":
+                controller.stop();
+                return true;
+            case "+":
+                controller.increaseBPM();
+                return true;
+            case "-":
+                controller.decreaseBPM();
+                return true;
+            default:
+                try {
+                    controller.setBPM(Integer.parseInt(command));
+                    return true;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package djview;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Counts durations in nanoseconds into power-of-two buckets: bucket i holds the
+values below 2^i ns. That's coarse (a percentile is only known to within a
+factor of two), but recording is a few atomic increments, never allocates and
+never blocks, so it can be done on the beat thread for every beat.
+*/
+public class LatencyHistogram {
+    final AtomicLongArray buckets = new AtomicLongArray(64);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong total = new AtomicLong();
+    final AtomicLong max = new AtomicLong();
+    
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // Someone else raised the maximum, try again
+        }
+        // After the maximum, so a value that's counted is never above it
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    // Upper bound of the bucket the p-th fraction of the values falls in, but
+    // never more than the largest value actually recorded
+    public long getPercentile(double p) {
+        long n = count.get();
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (n > 0 && seen >= n * p) {
+                return i == 0 ? 0 : Math.min(1L << Math.min(i, 62), getMax());
+            }
+        }
+        return 0;
+    }
+    
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50<%.1fus p99<%.1fus max=%.1fus",
+                getCount(), getMean() / 1e3, getPercentile(0.5) / 1e3,
+                getPercentile(0.99) / 1e3, getMax() / 1e3);
+    }
+}
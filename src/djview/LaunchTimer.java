@@ -0,0 +1,22 @@
+package djview;
+
+import java.lang.management.ManagementFactory;
+
+/*
+Times how long an entry point takes to get ready, for the "Ready in" line
+that DJTestDrive and HeadlessTestDrive print (and that
+bench/djview/StartupComparison reads). Create it first thing in main().
+*/
+public class LaunchTimer {
+    final long started = System.nanoTime();
+    
+    /*
+    How long it took since main() and since the JVM was launched. The latter
+    includes JVM startup and class loading, which is what CDS speeds up. Only
+    called once we're ready, so loading the MXBean doesn't count.
+    */
+    public String ready() {
+        return "Ready in " + (System.nanoTime() - started) / 1000000 + "ms, "
+                + ManagementFactory.getRuntimeMXBean().getUptime() + "ms since launch";
+    }
+}
@@ -0,0 +1,148 @@
+package djview;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/*
+Makes a BeatModel follow an external MIDI clock: START (or CONTINUE) turns
+the model on, STOP turns it off, and the TIMING_CLOCK ticks in between set
+its tempo and line up its beats. Connect it to a Transmitter, e.g. of a MIDI
+input port, or send it a MidiClockOut's messages directly.
+
+The tempo is measured over the last PPQN ticks, i.e. a whole beat, and then
+smoothed exponentially (SMOOTHING per tick), so the jitter of single ticks
+doesn't make the tempo wobble. Since setBPM() only takes whole numbers, the
+tempo is only changed once the measured one is more than HYSTERESIS away from
+it, otherwise a master playing at 120.5 would flip between 120 and 121.
+
+Every PPQN-th tick after START is a beat, and the local beat grid is lined
+up with it (BeatModel.align()), like BeatSyncFollower does with a master's
+beats.
+
+When to take a tick as received: if the message has a timestamp, that's
+better than the time it got here, which includes whatever queueing there was
+on the way. The timestamp is on the sender's (or the port's) microsecond
+clock, so the offset to ours is estimated as the smallest difference between
+receiving and timestamp over the last OFFSET_SAMPLES ticks: the tick that was
+delayed least. Without a timestamp, the time of arrival is all there is.
+
+How far each tick is from where the smoothed tempo says it should be is
+collected for report().
+*/
+public class MidiClockIn implements Receiver {
+    static final int PPQN = MidiClockOut.PPQN;
+    static final double SMOOTHING = 0.1;
+    static final double HYSTERESIS = 0.6;
+    static final int OFFSET_SAMPLES = 4 * PPQN;
+
+    BeatModel model;
+    boolean running;    // Between START and STOP
+
+    // Only touched on the thread that delivers the messages
+    long[] times = new long[PPQN];  // When the last ticks came, on our clock (ring)
+    long[] offsets = new long[OFFSET_SAMPLES];
+    long ticks;         // Since the first one
+    long beatTicks;     // Since START
+    long lastTick;
+    volatile double period; // Smoothed, of a beat, in nanoseconds. 0 = unknown
+
+    // Tick error statistics in nanoseconds
+    final RunningStats errors = new RunningStats();
+
+    public MidiClockIn(BeatModel model) {
+        this.model = model;
+    }
+
+    // The tempo as measured, not rounded, 0 until a beat's worth of ticks came
+    public double getTempo() {
+        double period = this.period;
+        return period == 0 ? 0 : 60e9 / period;
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        long received = System.nanoTime();
+        switch (message.getStatus()) {
+            case ShortMessage.TIMING_CLOCK:
+                tick(timeStamp < 0 ? received : local(timeStamp * 1000, received));
+                break;
+            case ShortMessage.START:
+            case ShortMessage.CONTINUE:
+                if (!running) {
+                    running = true;
+                    beatTicks = 0;
+                    model.on();
+                    if (period != 0) {
+                        model.setBPM((int)Math.round(getTempo())); // on() starts at 90
+                    }
+                }
+                break;
+            case ShortMessage.STOP:
+                if (running) {
+                    running = false;
+                    model.off();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // A sender's timestamp on our clock
+    long local(long stamp, long received) {
+        offsets[(int)(ticks % OFFSET_SAMPLES)] = received - stamp;
+        long offset = Long.MAX_VALUE;
+        for (int i = 0; i < Math.min(ticks + 1, OFFSET_SAMPLES); i++) {
+            offset = Math.min(offset, offsets[i]);
+        }
+        return stamp + offset;
+    }
+
+    void tick(long time) {
+        int i = (int)(ticks % PPQN);
+        if (ticks >= PPQN) {
+            long beat = time - times[i]; // A beat ago
+            if (period == 0) {
+                period = beat;
+            } else {
+                record(time - lastTick - period / PPQN);
+                period += (beat - period) * SMOOTHING;
+            }
+            double tempo = getTempo();
+            if (Math.abs(tempo - model.getBPM()) > HYSTERESIS) {
+                model.setBPM((int)Math.round(tempo));
+            }
+        }
+        times[i] = time;
+        lastTick = time;
+        ticks++;
+        if (running && beatTicks++ % PPQN == 0) {
+            model.align(time);
+        }
+    }
+
+    void record(double error) {
+        errors.record(error);
+    }
+
+    @Override
+    public void close() {
+        if (running) {
+            running = false;
+            model.off();
+        }
+    }
+
+    // Starts the statistics in report() over
+    public void resetReport() {
+        errors.reset();
+    }
+
+    public String report() {
+        return String.format("tempo %.2f BPM, tick error mean %.3fms, "
+                + "jitter %.3fms, max %.3fms over %d ticks",
+                getTempo(), errors.getMean() / 1e6, errors.getStdDev() / 1e6,
+                errors.getMaxAbs() / 1e6, errors.getCount());
+    }
+}
@@ -0,0 +1,186 @@
+package djview;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/*
+Sends a BeatModel's tempo as MIDI clock, so drum machines, sequencers and
+DAWs can play along: START when the model is turned on, 24 TIMING_CLOCK
+messages per beat (24 PPQN) while it plays, and STOP when it's turned off.
+
+The ticks are sent by a thread of their own, on a grid anchored at the beat
+the model played last: tick k is due at beat + k * period / 24. Every beat
+and tempo change moves the anchor to the model's latest beat (the same one
+its BeatScheduler re-anchors on), so the first tick of each group of 24 falls
+on the beat and rounding never adds up. What's kept across a move is the
+count: a follower knows where the beat is only by counting ticks, so every
+beat gets exactly 24 of them, even if after a big jump in tempo that means
+sending the ones that are overdue right away. (BeatScheduler.align() won't do
+here: it skips a tick that's overdue.) The streaming engine's beats aren't on
+the scheduler's grid, so with it the ticks only follow the tempo.
+
+Every message is stamped with the time it was due, not the time it went out.
+For a MidiDevice that's its own microsecond clock, for any other Receiver
+(e.g. a MidiClockIn in the same JVM) System.nanoTime() in microseconds.
+Receivers that honour timestamps get the ticks on the exact grid; for those
+that don't, the last stretch before every tick is busy-waited like the beats
+are (see BeatScheduler), so they go out as close to it as possible. How late
+they went out is collected for report().
+*/
+public class MidiClockOut implements BeatObserver, BPMObserver, Runnable {
+    static final int PPQN = 24;
+
+    BeatModel model;
+    MidiDevice device;      // null = not a device, stamp with nanoTime
+    Receiver receiver;
+    final ShortMessage clock = message(ShortMessage.TIMING_CLOCK);
+    final ShortMessage start = message(ShortMessage.START);
+    final ShortMessage stop = message(ShortMessage.STOP);
+
+    // Guarded by this
+    Thread thread;          // Sends the ticks, null while stopped
+    long beatTime;          // nanoTime of the beat the grid is anchored at
+    double tick;            // Nanoseconds from one tick to the next
+    long next;              // Of the next tick to send, counted from beatTime
+
+    // How late the ticks went out, in nanoseconds after they were due
+    final LatencyHistogram lateness = new LatencyHistogram();
+    final RunningStats jitter = new RunningStats();
+
+    // Opens the device and sends the clock to it
+    public MidiClockOut(BeatModel model, MidiDevice device) throws MidiUnavailableException {
+        this(model, open(device));
+        this.device = device;
+    }
+
+    public MidiClockOut(BeatModel model, Receiver receiver) {
+        this.model = model;
+        this.receiver = receiver;
+        model.registerObserver((BeatObserver)this);
+        model.registerObserver((BPMObserver)this);
+    }
+
+    static Receiver open(MidiDevice device) throws MidiUnavailableException {
+        if (!device.isOpen()) {
+            device.open();
+        }
+        return device.getReceiver();
+    }
+
+    static ShortMessage message(int status) {
+        try {
+            return new ShortMessage(status);
+        } catch (InvalidMidiDataException ex) {
+            throw new IllegalArgumentException(ex); // Only called with system real-time messages
+        }
+    }
+
+    public void close() {
+        stop();
+        model.removeObserver((BeatObserver)this);
+        model.removeObserver((BPMObserver)this);
+        receiver.close();
+    }
+
+    // Called by BeatModel.on()
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        beatTime = System.nanoTime(); // The model's first beat is due now, too
+        tick = (double)BeatScheduler.periodOf(model.getBPM()) / PPQN;
+        next = 0;
+        receiver.send(start, stamp(beatTime));
+        thread = new Thread(this, "MidiClock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Called by BeatModel.off()
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        BeatClock.SYSTEM.unpark(thread);
+        thread = null;
+        receiver.send(stop, stamp(System.nanoTime()));
+    }
+
+    // Called on the beat thread right after the beat was played
+    @Override
+    public synchronized void updateBeat() {
+        if (thread != null && model.engine == null) {
+            anchor(model.scheduler.due);
+        }
+    }
+
+    @Override
+    public synchronized void updateBPM() {
+        if (thread == null) {
+            return;
+        }
+        long due = model.scheduler.due; // 0 until the first beat
+        anchor(due != 0 && model.engine == null ? due : beatTime);
+    }
+
+    // Moves the grid to the beat at beatTime and the current tempo
+    void anchor(long beatTime) {
+        next -= Math.round((beatTime - this.beatTime) / tick);
+        this.beatTime = beatTime;
+        tick = (double)BeatScheduler.periodOf(model.getBPM()) / PPQN;
+        BeatClock.SYSTEM.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            long due;
+            boolean sent = false;
+            synchronized (this) {
+                if (thread != Thread.currentThread()) {
+                    return; // Stopped, no ticks after STOP
+                }
+                due = beatTime + Math.round(next * tick);
+                if (due - System.nanoTime() <= 0) {
+                    receiver.send(clock, stamp(due));
+                    next++;
+                    sent = true;
+                }
+            }
+            if (sent) {
+                record(System.nanoTime() - due);
+            } else {
+                BeatClock.SYSTEM.await(this, due, BeatScheduler.SPIN_NANOS);
+            }
+        }
+    }
+
+    // The timestamp for a message due at the given nanoTime, -1 if the
+    // device can't tell
+    long stamp(long due) {
+        if (device == null) {
+            return due / 1000;
+        }
+        long position = device.getMicrosecondPosition();
+        return position < 0 ? -1 : position + (due - System.nanoTime()) / 1000;
+    }
+
+    void record(long nanos) {
+        lateness.record(nanos);
+        jitter.record(nanos);
+    }
+
+    // Starts the statistics in report() over
+    public void resetReport() {
+        lateness.reset();
+        jitter.reset();
+    }
+
+    public String report() {
+        return String.format("%d ticks sent, late %s, jitter %.3fms",
+                jitter.getCount(), lateness, jitter.getStdDev() / 1e6);
+    }
+}
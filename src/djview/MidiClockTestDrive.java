@@ -0,0 +1,83 @@
+package djview;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+
+/*
+Runs a headless model as MIDI clock master or follower, on a real MIDI port:
+
+    java djview.MidiClockTestDrive list
+    java djview.MidiClockTestDrive out "USB MIDI"
+    java djview.MidiClockTestDrive in "USB MIDI"
+
+A port is picked by (part of) its name, see `list`. The master takes the same
+commands on stdin as HeadlessTestDrive and prints how late its ticks went out.
+A follower waits for START and prints its tempo and jitter statistics every
+few seconds. Without MIDI hardware, see bench/djview/MidiClockJitter.java.
+*/
+public class MidiClockTestDrive {
+    static final int REPORT_INTERVAL_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("list")) {
+            for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+                MidiDevice device = MidiSystem.getMidiDevice(info);
+                System.out.printf("%s (%s)%s%s%n", info.getName(), info.getDescription(),
+                        device.getMaxReceivers() != 0 ? ", out" : "",
+                        device.getMaxTransmitters() != 0 ? ", in" : "");
+            }
+            return;
+        }
+        if (args.length < 2) {
+            System.out.println("Usage: list | out <port> | in <port>");
+            return;
+        }
+        boolean out = args[0].equals("out");
+        MidiDevice device = find(args[1], out);
+        if (device == null) {
+            System.out.println("No MIDI " + args[0] + " port called " + args[1]);
+            return;
+        }
+        BeatModel model = new BeatModel();
+        ControllerInterface controller = new HeadlessController(model);
+
+        if (out) {
+            MidiClockOut clock = new MidiClockOut(model, device);
+            model.setMidiClock(clock);
+            controller.start();
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = in.readLine()) != null
+                    && HeadlessTestDrive.execute(controller, line.trim())) {
+                System.out.println(clock.report());
+            }
+            controller.stop();
+            clock.close();
+        } else {
+            MidiClockIn clock = new MidiClockIn(model);
+            device.open();
+            device.getTransmitter().setReceiver(clock);
+            for (;;) {
+                Thread.sleep(REPORT_INTERVAL_MILLIS);
+                System.out.println(clock.report());
+            }
+        }
+        device.close();
+        System.exit(0);
+    }
+
+    // The first port whose name contains `name` and that can send (out) or
+    // receive (in) messages
+    static MidiDevice find(String name, boolean out) throws Exception {
+        for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+            MidiDevice device = MidiSystem.getMidiDevice(info);
+            int max = out ? device.getMaxReceivers() : device.getMaxTransmitters();
+            if (info.getName().contains(name) && max != 0) {
+                return device;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,157 @@
+package djview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.sound.sampled.AudioFormat;
+
+/*
+Renders a RenderSession to a WAV file instead of playing it: the sample is
+mixed in at the exact frame of every beat, the same way the StreamingEngine
+does it, just as fast as the CPU allows instead of at the speed of the sound
+card.
+
+The audio is produced and written CHUNK_FRAMES at a time, so memory use is the
+same for a one minute and a one hour session. The sizes in the WAV header are
+filled in at the end.
+
+Several stems (e.g. one per sample) can be rendered in parallel, each into
+its own file, see renderStems().
+*/
+public class OfflineRenderer {
+    static final int CHUNK_FRAMES = 8192;
+    static final int WAV_HEADER_SIZE = 44;
+    
+    // One file to render, see renderStems()
+    public static class Stem {
+        final RenderSession session;
+        final int sampleId;
+        final File file;
+        
+        public Stem(RenderSession session, int sampleId, File file) {
+            this.session = session;
+            this.sampleId = sampleId;
+            this.file = file;
+        }
+    }
+    
+    SampleBank bank;
+    
+    public OfflineRenderer(SampleBank bank) {
+        this.bank = bank;
+    }
+    
+    /*
+    Renders the session with the given sample on every beat. The file ends
+    when the last event's sample has faded out. Returns the length of the
+    rendered audio in seconds.
+    */
+    public double render(RenderSession session, int sampleId, File wav) throws IOException {
+        AudioFormat format = bank.getFormat(sampleId);
+        int channels = format.getChannels();
+        float rate = format.getSampleRate();
+        Voices voices = new Voices(bank, StreamingEngine.VOICES);
+        byte[] chunk = new byte[CHUNK_FRAMES * format.getFrameSize()];
+        long tail = bank.get(sampleId).limit() / channels;
+        long end = frameOf(session.getEndNanos(), rate) + tail;
+        
+        boolean playing = false;
+        int bpm = 90;
+        double period = rate * 60.0 / bpm;
+        long beatOrigin = 0;
+        long beatIndex = 0;
+        long nextBeat = 0;
+        int event = 0;
+        long bytes = 0;
+        
+        try (RandomAccessFile out = new RandomAccessFile(wav, "rw")) {
+            out.setLength(0);
+            out.write(header(format, 0));
+            for (long frame = 0; frame < end; ) {
+                int frames = (int)Math.min(CHUNK_FRAMES, end - frame);
+                int b = 0;
+                for (int f = 0; f < frames; f++, frame++) {
+                    while (event < session.size
+                            && frameOf(session.times[event], rate) <= frame) {
+                        int type = session.types[event];
+                        if (type == EventRecorder.START) {
+                            playing = true;
+                            beatOrigin = frame;
+                            beatIndex = 0;
+                            nextBeat = frame;
+                        } else if (type == EventRecorder.STOP) {
+                            playing = false;
+                        } else if (type == EventRecorder.BPM) {
+                            // Re-anchor on the last beat, like the live engine
+                            if (beatIndex > 0) {
+                                beatOrigin += Math.round((beatIndex - 1) * period);
+                                beatIndex = 1;
+                            }
+                            bpm = Math.max(session.values[event], 1);
+                            period = rate * 60.0 / bpm;
+                            nextBeat = beatOrigin + Math.round(beatIndex * period);
+                            if (nextBeat < frame) {
+                                beatOrigin = frame;
+                                beatIndex = 0;
+                                nextBeat = frame;
+                            }
+                        }
+                        event++;
+                    }
+                    if (playing && frame == nextBeat) {
+                        voices.trigger(sampleId, 1f);
+                        beatIndex++;
+                        nextBeat = beatOrigin + Math.round(beatIndex * period);
+                    }
+                    b = voices.mix(chunk, b, channels);
+                }
+                out.write(chunk, 0, b);
+                bytes += b;
+            }
+            out.seek(0);
+            out.write(header(format, bytes));
+        }
+        return end / rate;
+    }
+    
+    /*
+    Renders all stems in parallel on a ForkJoinPool. Returns the total length
+    of the rendered audio in seconds.
+    */
+    public double renderStems(List<Stem> stems) throws Exception {
+        List<Callable<Double>> tasks = new ArrayList<>();
+        for (Stem stem : stems) {
+            tasks.add(() -> render(stem.session, stem.sampleId, stem.file));
+        }
+        double seconds = 0;
+        for (Future<Double> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            seconds += result.get();
+        }
+        return seconds;
+    }
+    
+    static long frameOf(long nanos, float rate) {
+        return Math.round(nanos * (double)rate / 1e9);
+    }
+    
+    // The canonical 44 byte header of a PCM WAV file
+    static byte[] header(AudioFormat format, long dataBytes) {
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int size = (int)Math.min(dataBytes, 0xffffffffL - 36);
+        header.putInt(0x46464952).putInt(36 + size).putInt(0x45564157); // RIFF, WAVE
+        header.putInt(0x20746d66).putInt(16);                             // "fmt "
+        header.putShort((short)1).putShort((short)format.getChannels());
+        header.putInt((int)format.getSampleRate());
+        header.putInt((int)format.getSampleRate() * format.getFrameSize());
+        header.putShort((short)format.getFrameSize()).putShort((short)16);
+        header.putInt(0x61746164).putInt(size);                           // "data"
+        return header.array();
+    }
+}
@@ -0,0 +1,102 @@
+package djview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+A one bar drum pattern for the step sequencer: any number of tracks, each
+playing one sample from a SampleBank, over 16 or 32 steps. Every step has a
+velocity from 0 (off) to 127 (full). Swing delays the off-beat steps (the odd
+ones) by up to half a step.
+
+A Pattern is only edited, never played directly. For playback it's compiled
+into a Timeline (see compile()), and the StreamingEngine swaps the new
+Timeline in at the next bar, so editing a pattern while it plays never causes
+a glitch.
+
+The bar is in 4/4, so a beat is steps/4 steps long.
+*/
+public class Pattern {
+    static final int BEATS_PER_BAR = 4;
+    
+    int steps;
+    List<Integer> sampleIds = new ArrayList<>();
+    List<int[]> velocities = new ArrayList<>();
+    double swing;
+    
+    public Pattern(int steps) {
+        if (steps != 16 && steps != 32) {
+            throw new IllegalArgumentException("A pattern has 16 or 32 steps, not " + steps);
+        }
+        this.steps = steps;
+    }
+    
+    public int getSteps() {
+        return steps;
+    }
+    
+    // Adds a track that plays the given sample and returns its number
+    public int addTrack(int sampleId) {
+        sampleIds.add(sampleId);
+        velocities.add(new int[steps]);
+        return sampleIds.size() - 1;
+    }
+    
+    public void setStep(int track, int step, int velocity) {
+        velocities.get(track)[step] = Math.max(0, Math.min(velocity, 127));
+    }
+    
+    public int getStep(int track, int step) {
+        return velocities.get(track)[step];
+    }
+    
+    // 0 = straight, 1 = off-beat steps are played half a step late
+    public void setSwing(double swing) {
+        this.swing = Math.max(0, Math.min(swing, 1));
+    }
+    
+    /*
+    Works out when every hit happens, in frames from the start of the bar, at
+    the given tempo and sample rate. Tracks are walked step by step, so the
+    events come out sorted by time (swing delays by less than a step).
+    */
+    public Timeline compile(float frameRate, int bpm) {
+        double beatFrames = frameRate * 60.0 / Math.max(bpm, 1);
+        double stepFrames = beatFrames * BEATS_PER_BAR / steps;
+        
+        int size = 0;
+        for (int[] track : velocities) {
+            for (int velocity : track) {
+                if (velocity > 0) {
+                    size++;
+                }
+            }
+        }
+        long[] offsets = new long[size];
+        int[] ids = new int[size];
+        float[] gains = new float[size];
+        int event = 0;
+        for (int step = 0; step < steps; step++) {
+            double start = step * stepFrames;
+            if (step % 2 == 1) {
+                start += swing * stepFrames / 2;
+            }
+            for (int track = 0; track < velocities.size(); track++) {
+                int velocity = velocities.get(track)[step];
+                if (velocity > 0) {
+                    offsets[event] = Math.round(start);
+                    ids[event] = sampleIds.get(track);
+                    gains[event] = velocity / 127f;
+                    event++;
+                }
+            }
+        }
+        
+        long[] beats = new long[BEATS_PER_BAR];
+        for (int beat = 0; beat < BEATS_PER_BAR; beat++) {
+            beats[beat] = Math.round(beat * beatFrames);
+        }
+        return new Timeline(offsets, ids, gains, beats,
+                Math.round(BEATS_PER_BAR * beatFrames));
+    }
+}
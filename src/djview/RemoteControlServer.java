@@ -0,0 +1,333 @@
+package djview;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Lets other programs drive a ControllerInterface over TCP. All connections are
+served by a single thread with a Selector, so thousands of clients cost a
+socket and a small buffer each, not a thread each.
+
+The protocol is text, one command per line, the same commands as the
+HeadlessTestDrive takes:
+
+    start | stop | + | - | <bpm> | bpm | subscribe | unsubscribe | quit
+
+Every command except quit is answered with "ok <bpm>" (the tempo after the
+command) or "error <reason>". After "subscribe", the client is also sent
+"beat" on every beat and "bpm <bpm>" on every tempo change, until it sends
+"unsubscribe". Events can arrive between a command and its answer.
+
+A client that doesn't read what it's sent only costs itself: events that
+don't fit in its output buffer are dropped, and if an answer doesn't fit,
+the connection is closed.
+*/
+public class RemoteControlServer implements BeatObserver, BPMObserver, Runnable {
+    static final int MAX_LINE = 256;
+    static final int OUTPUT_LIMIT = 8 * 1024;
+    static final ByteBuffer BEAT = ascii("beat\n");
+
+    ControllerInterface controller;
+    BeatModelInterface model;
+    Selector selector;
+    ServerSocketChannel server;
+    Thread thread;
+
+    // Handed from the beat thread to the selector thread
+    AtomicLong beats = new AtomicLong();
+    AtomicBoolean bpmChanged = new AtomicBoolean();
+
+    // Only touched by the selector thread
+    List<Connection> subscribers = new ArrayList<>();
+    volatile int connections;
+
+    public RemoteControlServer(ControllerInterface controller, BeatModelInterface model,
+            int port) throws IOException {
+        this.controller = controller;
+        this.model = model;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        model.registerObserver((BeatObserver)this);
+        model.registerObserver((BPMObserver)this);
+        thread = new Thread(this, "RemoteControlServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections;
+    }
+
+    public void close() throws IOException {
+        model.removeObserver((BeatObserver)this);
+        model.removeObserver((BPMObserver)this);
+        server.close();
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called on the beat thread: count the beat and let the selector send it
+    @Override
+    public void updateBeat() {
+        beats.incrementAndGet();
+        selector.wakeup();
+    }
+
+    @Override
+    public void updateBPM() {
+        bpmChanged.set(true);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (server.isOpen()) {
+                selector.select();
+                pushEvents();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection)key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException ex) {
+                            connection.close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Error: Remote control server failed.");
+            System.out.println(ex);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection)key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // Closing anyway
+            }
+        }
+    }
+
+    void accept() {
+        SocketChannel channel;
+        try {
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections++;
+            }
+        } catch (IOException ex) {
+            // Most likely out of file descriptors. The connection waits in the
+            // backlog until one is closed, the others are still served.
+            System.out.println("Error: Can't accept connection: " + ex.getMessage());
+        }
+    }
+
+    void pushEvents() {
+        long n = beats.getAndSet(0);
+        for (long i = 0; i < n; i++) {
+            broadcast(BEAT);
+        }
+        if (bpmChanged.getAndSet(false)) {
+            broadcast(ascii("bpm " + model.getBPM() + "\n"));
+        }
+    }
+
+    void broadcast(ByteBuffer event) {
+        // Backwards, since a subscriber is removed if sending closes it
+        for (int i = subscribers.size() - 1; i >= 0; i--) {
+            subscribers.get(i).send(event.duplicate(), false);
+        }
+    }
+
+    // The answer to a command line, null to close the connection
+    String execute(Connection connection, String command) {
+        switch (command) {
+            case "bpm":
+                break;
+            case "subscribe":
+                if (!connection.subscribed) {
+                    connection.subscribed = true;
+                    subscribers.add(connection);
+                }
+                break;
+            case "unsubscribe":
+                connection.subscribed = false;
+                subscribers.remove(connection);
+                break;
+            case "quit":
+                return null;
+            default:
+                // The same commands as on the console
+                if (!HeadlessTestDrive.control(controller, command)) {
+                    return "error unknown command\n";
+                }
+        }
+        return "ok " + model.getBPM() + "\n";
+    }
+
+    static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    class Connection {
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        ByteBuffer out;         // What couldn't be written yet, null = nothing
+        boolean subscribed;
+        long dropped;           // Events that didn't fit in out
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            // Execute every complete line in the buffer
+            int start = 0;
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) == '\n') {
+                    String command = new String(in.array(), start, i - start,
+                            StandardCharsets.US_ASCII).trim();
+                    start = i + 1;
+                    if (command.isEmpty()) {
+                        continue;
+                    }
+                    String answer = execute(this, command);
+                    if (answer == null || !send(ascii(answer), true)) {
+                        close();
+                        return;
+                    }
+                }
+            }
+            if (start == 0 && !in.hasRemaining()) {
+                send(ascii("error line too long\n"), true);
+                close();
+                return;
+            }
+            in.limit(in.position()).position(start);
+            in.compact();
+        }
+
+        /*
+        Writes what it can right away and keeps the rest until the socket can
+        take more. Returns false if the data didn't fit: an event is dropped
+        then, for an answer the caller closes the connection.
+        */
+        boolean send(ByteBuffer data, boolean answer) {
+            if (!channel.isOpen()) {
+                return false;
+            }
+            try {
+                if (out == null) {
+                    channel.write(data);
+                    if (!data.hasRemaining()) {
+                        return true;
+                    }
+                    out = ByteBuffer.allocate(OUTPUT_LIMIT);
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                if (data.remaining() > out.remaining()) {
+                    if (!answer) {
+                        dropped++;
+                    }
+                    return false;
+                }
+                out.put(data);
+                return true;
+            } catch (IOException ex) {
+                close();
+                return false;
+            }
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            if (out.hasRemaining()) {
+                out.compact();
+            } else {
+                out = null; // Only slow clients keep a buffer around
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (subscribed) {
+                subscribed = false;
+                subscribers.remove(this);
+            }
+            if (channel.isOpen()) {
+                connections--;
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Closing anyway
+                }
+            }
+        }
+    }
+
+    /*
+    Runs a headless model that can only be controlled remotely:
+
+        java djview.RemoteControlServer [port]
+
+    Try it with `nc localhost 4711`.
+    */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4711;
+        BeatModelInterface model = new BeatModel();
+        RemoteControlServer server = new RemoteControlServer(
+                new HeadlessController(model), model, port);
+        System.out.println("Listening on port " + server.getPort());
+        server.thread.join();
+    }
+}
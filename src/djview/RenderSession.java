@@ -0,0 +1,65 @@
+package djview;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+What the OfflineRenderer should render: a list of start, stop and BPM changes
+with their times in nanoseconds from the start of the session. It uses the
+record types of EventRecorder, so a recorded session can be rendered as is
+(see fromLog()).
+
+Beats aren't listed; the renderer places them itself, from the tempo.
+*/
+public class RenderSession {
+    long[] times = new long[16];
+    int[] types = new int[16];
+    int[] values = new int[16];
+    int size;
+    
+    // Events have to be added in order of time
+    public RenderSession add(long nanos, int type, int value) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        times[size] = nanos;
+        types[size] = type;
+        values[size] = value;
+        size++;
+        return this;
+    }
+    
+    public RenderSession start(double seconds) {
+        return add((long)(seconds * 1e9), EventRecorder.START, 0);
+    }
+    
+    public RenderSession stop(double seconds) {
+        return add((long)(seconds * 1e9), EventRecorder.STOP, 0);
+    }
+    
+    public RenderSession setBPM(double seconds, int bpm) {
+        return add((long)(seconds * 1e9), EventRecorder.BPM, bpm);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public long getEndNanos() {
+        return size == 0 ? 0 : times[size - 1];
+    }
+    
+    // Takes the start, stop and BPM records of a log (beats are left out)
+    public static RenderSession fromLog(File log) throws IOException {
+        RenderSession session = new RenderSession();
+        new EventReplayer(log).replay((nanos, type, value) -> {
+            if (type != EventRecorder.BEAT) {
+                session.add(nanos, type, value);
+            }
+        }, false);
+        return session;
+    }
+}
@@ -0,0 +1,48 @@
+package djview;
+
+/*
+Mean, standard deviation and largest magnitude of a stream of values, kept
+with Welford's running variance, so nothing but a few doubles is stored.
+Unlike LatencyHistogram, the values may be negative (an error can be early
+as well as late). Where both are wanted, record into both: the histogram
+for the percentiles, this for the jitter.
+*/
+public class RunningStats {
+    long count;
+    double mean;
+    double m2;          // Sum of squared differences from the mean
+    double maxAbs;
+
+    public synchronized void record(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        maxAbs = Math.max(maxAbs, Math.abs(value));
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMean() {
+        return mean;
+    }
+
+    // Sample standard deviation, 0 until there are two values
+    public synchronized double getStdDev() {
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+    }
+
+    // Of the value furthest from 0, whichever side it's on
+    public synchronized double getMaxAbs() {
+        return maxAbs;
+    }
+
+    public synchronized void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        maxAbs = 0;
+    }
+}
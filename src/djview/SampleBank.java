@@ -0,0 +1,163 @@
+package djview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/*
+Holds decoded samples, ready to be mixed, so that WAV files are read and
+decoded once at startup instead of whenever they're played.
+
+All samples are kept as 16-bit signed little-endian PCM outside the Java heap,
+so a large library doesn't put pressure on the garbage collector:
+
+- Files that are already in that format and larger than MAP_THRESHOLD are
+  memory-mapped. The OS pages them in when they're played and can drop them
+  again when memory is short.
+- Everything else is decoded into a direct ByteBuffer.
+
+Every sample gets an int id when it's loaded. Looking a sample up by id at
+play time is an array access and allocates nothing; the (slower) lookup by
+name is meant for setting things up. A file is known by its full path, so
+two files with the same name in different directories are two samples; the
+lookup by name alone finds the first one loaded. Load everything before playback starts;
+the audio thread reads the bank without locking.
+*/
+public class SampleBank {
+    static final long MAP_THRESHOLD = 1024 * 1024;
+    
+    List<ShortBuffer> samples = new ArrayList<>();
+    List<AudioFormat> formats = new ArrayList<>();
+    Map<Path, Integer> ids = new HashMap<>();       // By absolute, normalized path
+    Map<String, Integer> names = new HashMap<>();   // By file name, first one loaded
+    long directBytes;
+    long mappedBytes;
+    long loadNanos;
+    
+    // Loads a WAV file and returns its id. Loading the same file again
+    // returns the id it already has.
+    public synchronized int load(File file) throws Exception {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Integer id = ids.get(path);
+        if (id != null) {
+            return id;
+        }
+        long started = System.nanoTime();
+        AudioInputStream in = AudioSystem.getAudioInputStream(file);
+        AudioFormat source = in.getFormat();
+        AudioFormat format = new AudioFormat(source.getSampleRate(), 16,
+                source.getChannels(), true, false);
+        ByteBuffer data = null;
+        if (file.length() > MAP_THRESHOLD && source.matches(format)) {
+            data = map(file);
+        }
+        if (data != null) {
+            in.close();
+            mappedBytes += data.capacity();
+        } else {
+            AudioInputStream pcm = AudioSystem.getAudioInputStream(format, in);
+            byte[] bytes = pcm.readAllBytes();
+            pcm.close();
+            data = ByteBuffer.allocateDirect(bytes.length);
+            data.put(bytes).flip();
+            directBytes += bytes.length;
+        }
+        samples.add(data.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+        formats.add(format);
+        ids.put(path, samples.size() - 1);
+        names.putIfAbsent(file.getName(), samples.size() - 1);
+        loadNanos += System.nanoTime() - started;
+        return samples.size() - 1;
+    }
+    
+    // Loads every .wav file in a directory
+    public void loadDirectory(File directory) throws Exception {
+        File[] files = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".wav"));
+        if (files != null) {
+            for (File file : files) {
+                load(file);
+            }
+        }
+    }
+    
+    /*
+    Maps the "data" chunk of a RIFF/WAVE file. Returns null if the file
+    isn't laid out the way we expect, and it's decoded the normal way then.
+    */
+    static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) {
+                return null; // Not "RIFF" ... "WAVE"
+            }
+            long position = 12;
+            ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + 8 <= channel.size()) {
+                chunk.clear();
+                channel.read(chunk, position);
+                long size = chunk.getInt(4) & 0xffffffffL;
+                if (chunk.getInt(0) == 0x61746164) { // "data"
+                    size = Math.min(size, channel.size() - position - 8);
+                    return channel.map(FileChannel.MapMode.READ_ONLY, position + 8, size);
+                }
+                position += 8 + size + (size & 1); // Chunks are padded to even sizes
+            }
+            return null;
+        }
+    }
+    
+    // The id of a loaded sample, or -1
+    public synchronized int idOf(File file) {
+        Integer id = ids.get(file.toPath().toAbsolutePath().normalize());
+        return id == null ? -1 : id;
+    }
+    
+    // The id of the first sample loaded from a file with this name, or -1
+    public synchronized int idOf(String name) {
+        Integer id = names.get(name);
+        return id == null ? -1 : id;
+    }
+    
+    public int size() {
+        return samples.size();
+    }
+    
+    /*
+    The sample's PCM data, interleaved channels. Use the absolute get(index)
+    methods: the buffer is shared by everyone playing the sample, so its
+    position must not be moved.
+    */
+    public ShortBuffer get(int id) {
+        return samples.get(id);
+    }
+    
+    public AudioFormat getFormat(int id) {
+        return formats.get(id);
+    }
+    
+    public long getDirectBytes() {
+        return directBytes;
+    }
+    
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+    
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+}
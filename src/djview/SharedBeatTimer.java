@@ -0,0 +1,217 @@
+package djview;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+A BeatTimer that plays the beats of any number of BeatModels on a fixed,
+small number of threads, instead of one thread per model.
+
+All scheduled models sit in one priority queue ordered by the deadline of
+their next beat. The timer threads wait for the head of the queue to become
+due, take it out, play the beat and then put the model back with its
+following deadline. Inserting and removing is O(log n), so 10,000 models cost
+about as much per beat as 10.
+
+A model is only ever in the queue while none of the threads is playing its
+beat, so with several threads, no two of them run the same model's beat() at
+once. If a beat takes longer than a period, or the threads fall behind, the
+beats that are more than a period late are dropped (see
+BeatScheduler.advance() and BeatModel.getDroppedBeats()).
+
+A tempo change can move a model's next beat earlier, so reschedule() queues a
+fresh entry. The old one is left in the queue and skipped once it comes up
+(the map always points at a model's current entry). When there are more of
+those stale entries than models, they're all removed in one go, so the queue
+can't grow with the number of tempo changes. A later deadline queues nothing:
+the entry is moved back when it comes up. Cancelled models are dropped when
+their entry comes up. While a model's beat is playing, there's nothing to
+reschedule: its next deadline is read once the beat is done.
+
+The beats run on the timer threads, so observers should be quick or use
+asynchronous delivery (see BeatModel.setAsyncDelivery()), otherwise they delay
+the beats of other models.
+*/
+public class SharedBeatTimer implements BeatTimer, Runnable {
+    
+    static class Entry {
+        final BeatScheduler schedule;
+        final Runnable beat;
+        final long deadline;
+        
+        Entry(BeatScheduler schedule, Runnable beat, long deadline) {
+            this.schedule = schedule;
+            this.beat = beat;
+            this.deadline = deadline;
+        }
+    }
+    
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition changed = lock.newCondition();
+    final PriorityQueue<Entry> queue = new PriorityQueue<>(
+            (a, b) -> Long.compare(a.deadline, b.deadline));
+    final Map<BeatScheduler, Entry> current = new HashMap<>();
+    final Set<BeatScheduler> playing = new HashSet<>();  // Taken out, beat running
+    int stale;      // Entries in the queue that were replaced by a newer one
+    final Thread[] threads;
+    
+    public SharedBeatTimer(int threadCount) {
+        threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(this, "SharedBeatTimer-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+    
+    @Override
+    public void schedule(BeatScheduler schedule, Runnable beat) {
+        lock.lock();
+        try {
+            Entry entry = new Entry(schedule, beat, schedule.deadline());
+            if (playing.contains(schedule)) {
+                current.put(schedule, entry); // Queued once the beat is done
+            } else {
+                if (current.containsKey(schedule)) {
+                    stale++;
+                }
+                enqueue(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public void reschedule(BeatScheduler schedule) {
+        lock.lock();
+        try {
+            Entry entry = current.get(schedule);
+            if (entry == null || playing.contains(schedule)) {
+                return;
+            }
+            long deadline = schedule.deadline();
+            if (deadline < entry.deadline) {
+                stale++;
+                enqueue(new Entry(schedule, entry.beat, deadline));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Number of models currently scheduled
+    public int size() {
+        lock.lock();
+        try {
+            return current.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Number of entries in the queue, stale ones included
+    int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    void enqueue(Entry entry) {
+        current.put(entry.schedule, entry);
+        if (stale > current.size()) {
+            queue.removeIf(e -> current.get(e.schedule) != e); // O(n), once per n changes
+            stale = 0;
+        }
+        queue.add(entry);
+        if (queue.peek() == entry) {
+            changed.signal(); // The earliest deadline moved, wake up a thread
+        }
+    }
+    
+    @Override
+    public void run() {
+        for (;;) {
+            Entry entry;
+            lock.lock();
+            try {
+                entry = takeDue();
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                entry.beat.run();
+            } catch (Exception ex) {
+                System.out.println("Error: Beat failed.");
+                System.out.println(ex);
+            }
+            lock.lock();
+            try {
+                played(entry.schedule);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    // Puts a model whose beat is done back in the queue, at its next deadline
+    void played(BeatScheduler schedule) {
+        playing.remove(schedule);
+        Entry entry = current.get(schedule);
+        if (entry == null) {
+            return;
+        }
+        if (schedule.isCancelled()) {
+            current.remove(schedule);
+            return;
+        }
+        enqueue(new Entry(schedule, entry.beat, schedule.deadline()));
+    }
+    
+    // Waits for the next beat that's due and marks its model as playing
+    Entry takeDue() throws InterruptedException {
+        for (;;) {
+            Entry entry = queue.peek();
+            if (entry == null) {
+                changed.await();
+                continue;
+            }
+            long remaining = entry.deadline - System.nanoTime();
+            if (remaining > 0) {
+                changed.awaitNanos(remaining);
+                continue;
+            }
+            queue.poll();
+            if (current.get(entry.schedule) != entry) {
+                stale--;
+                continue; // Replaced by reschedule()
+            }
+            if (entry.schedule.isCancelled()) {
+                current.remove(entry.schedule);
+                continue;
+            }
+            if (entry.deadline < entry.schedule.deadline()) {
+                // The tempo went down since it was queued
+                enqueue(new Entry(entry.schedule, entry.beat, entry.schedule.deadline()));
+                continue;
+            }
+            entry.schedule.advance();
+            playing.add(entry.schedule);
+            Entry next = queue.peek();
+            if (next != null && next.deadline <= System.nanoTime()) {
+                changed.signal(); // More work is due, let another thread help
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package djview;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+/*
+An alternative to BeatModel's Clip based playback. Instead of rewinding and
+restarting a Clip from the beat thread on every beat, the clap sample is
+taken from a SampleBank, where it's decoded once, and mixed straight into the
+PCM stream that's written to a SourceDataLine.
+
+Every beat is placed at an exact frame offset in that stream, computed from
+the BPM. The audio thread only has to keep the line's buffer filled, so when a
+beat is heard doesn't depend on when a thread wakes up. The latency is bounded
+by the size of the buffer instead.
+
+Instead of the clap on every beat, the engine can also play a step sequencer
+pattern (see Pattern and Timeline). A new Timeline is swapped in at the start
+of the next bar, so the bar that's playing is never cut short.
+
+Up to VOICES samples play at the same time, so hits overlap instead of cutting
+each other off. When all voices are busy, the oldest one is reused.
+
+If the audio thread doesn't refill the buffer in time, the line runs dry and
+there's an audible gap. This is counted in getUnderruns().
+*/
+public class StreamingEngine implements Runnable {
+    static final int DEFAULT_BUFFER_FRAMES = 2048;
+    static final int VOICES = 16;
+
+    AudioFormat format;     // 16-bit signed little-endian PCM
+    SampleBank bank;
+    int clapId;
+    int channels;
+    SourceDataLine line;
+    int bufferFrames;       // Size of the line's buffer
+    int chunkFrames;        // Frames rendered per write()
+    byte[] chunk;
+
+    volatile int bpm = 90;
+    volatile Timeline pending;  // Pattern to play from the next bar on
+    volatile boolean stop = true;
+    volatile long underruns;
+    Runnable onBeat;        // Called from the audio thread for every beat
+    Thread thread;
+
+    // Only touched by the audio thread
+    long frame;             // Frames rendered since start()
+    int currentBPM;
+    long beatOrigin;        // Frame the beat grid is anchored to
+    long beatIndex;         // Beats rendered since beatOrigin
+    long nextBeat;          // Frame the next beat starts at
+    Timeline timeline;      // Pattern being played, null = clap on every beat
+    long barStart;          // Frame the current bar of the pattern started at
+    int event;              // Next event of the timeline
+    int beat;               // Next beat of the timeline
+
+    Voices voices;          // Only touched by the audio thread too
+
+    public StreamingEngine(SampleBank bank, int clapId, int bufferFrames) throws Exception {
+        this.bank = bank;
+        this.clapId = clapId;
+        format = bank.getFormat(clapId);
+        channels = format.getChannels();
+        voices = new Voices(bank, VOICES);
+
+        this.bufferFrames = bufferFrames;
+        chunkFrames = Math.max(bufferFrames / 4, 1);
+        chunk = new byte[chunkFrames * format.getFrameSize()];
+        line = AudioSystem.getSourceDataLine(format);
+        line.open(format, bufferFrames * format.getFrameSize());
+    }
+
+    public void setBPM(int bpm) {
+        this.bpm = bpm;  // Picked up by the audio thread at the next chunk
+    }
+
+    // Plays the timeline from the next bar on (or the next beat, if no
+    // pattern is playing yet). null goes back to the clap on every beat.
+    public void setTimeline(Timeline timeline) {
+        pending = timeline;
+    }
+
+    public float getFrameRate() {
+        return format.getSampleRate();
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    public void start(Runnable onBeat) {
+        this.onBeat = onBeat;
+        stop = false;
+        thread = new Thread(this, "StreamingEngine");
+        thread.start();
+    }
+
+    public void stop() {
+        stop = true;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        line.stop();
+        line.flush();
+    }
+
+    public void close() {
+        line.close();
+    }
+
+    double framesPerBeat(int bpm) {
+        return format.getSampleRate() * 60.0 / Math.max(bpm, 1);
+    }
+
+    @Override
+    public void run() {
+        frame = 0;
+        currentBPM = bpm;
+        beatOrigin = 0;
+        beatIndex = 0;
+        nextBeat = 0;
+        timeline = null;
+        voices.reset();
+        line.start();
+
+        while (!stop) {
+            int beats = render();
+            // The line has been drained completely since the last write, so
+            // there was a gap in the output.
+            if (frame > chunkFrames && line.available() >= line.getBufferSize()) {
+                underruns++;
+            }
+            line.write(chunk, 0, chunk.length); // Blocks while the buffer is full
+            for (int i = 0; i < beats; i++) {
+                onBeat.run();
+            }
+        }
+    }
+
+    /*
+    Renders the next chunk of audio and returns how many beats were started in
+    it. Beat positions are computed as beatOrigin + beatIndex * framesPerBeat,
+    so rounding a single beat to a whole frame doesn't shift the ones after it.
+    */
+    int render() {
+        int bpm = this.bpm;
+        if (bpm != currentBPM) {
+            // Re-anchor the beat grid on the last beat, the same way
+            // BeatScheduler does.
+            if (beatIndex > 0) {
+                beatOrigin = beatOrigin
+                        + Math.round((beatIndex - 1) * framesPerBeat(currentBPM));
+                beatIndex = 1;
+            }
+            currentBPM = bpm;
+            nextBeat = beatOrigin + Math.round(beatIndex * framesPerBeat(bpm));
+            if (nextBeat < frame) {
+                // The faster tempo puts the next beat in the past: play it now
+                // and anchor the grid on it.
+                beatOrigin = frame;
+                beatIndex = 0;
+                nextBeat = frame;
+            }
+        }
+
+        double period = framesPerBeat(bpm);
+        int beats = 0;
+        int b = 0;
+        for (int f = 0; f < chunkFrames; f++, frame++) {
+            if (timeline != null && frame == barStart + timeline.barFrames) {
+                startBar(pending);
+            } else if (timeline == null && frame == nextBeat && pending != null) {
+                startBar(pending);
+            }
+
+            if (timeline != null) {
+                long position = frame - barStart;
+                while (event < timeline.offsets.length
+                        && timeline.offsets[event] == position) {
+                    voices.trigger(timeline.sampleIds[event], timeline.gains[event]);
+                    event++;
+                }
+                if (beat < timeline.beatOffsets.length
+                        && timeline.beatOffsets[beat] == position) {
+                    beat++;
+                    beats++;
+                }
+            } else if (frame == nextBeat) {
+                voices.trigger(clapId, 1f);
+                beatIndex++;
+                nextBeat = beatOrigin + Math.round(beatIndex * period);
+                beats++;
+            }
+
+            b = voices.mix(chunk, b, channels);
+        }
+        return beats;
+    }
+
+    // Starts a bar of the given timeline, or goes back to the beat grid
+    void startBar(Timeline next) {
+        timeline = next;
+        barStart = frame;
+        event = 0;
+        beat = 0;
+        if (next == null) {
+            beatOrigin = frame;
+            beatIndex = 0;
+            nextBeat = frame;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package djview;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.TargetDataLine;
+
+/*
+Listens to audio and works out its tempo, so the model can follow whatever is
+playing instead of a BPM typed in by hand.
+
+The audio is cut into hops of HOP frames. For every hop we compute how much
+louder it got than the previous one (the energy flux, on a log scale and only
+counting increases). Drum hits and other onsets show up as peaks in that
+signal. The tempo is the spacing at which the peaks repeat best, found with an
+autocorrelation over the last WINDOW hops (about 6 seconds).
+
+A lag also scores half of the autocorrelation at twice that lag, which favours
+the beat over syncopated patterns. Evenly spaced hits correlate just as well
+at twice their spacing, so if half the best lag scores nearly as well, the
+faster tempo wins. The best lag is refined between hops by fitting a
+parabola. The estimate is smoothed, and setBPM() is only called
+on the model when the rounded tempo changes.
+
+All buffers are allocated up front, so process() allocates nothing and can
+run on the audio thread. The analysis takes a tiny fraction of a core, so
+files are processed much faster than realtime.
+*/
+public class TempoDetector {
+    static final int HOP = 256;
+    static final int WINDOW = 1024;
+    static final int MIN_BPM = 60;
+    static final int MAX_BPM = 200;
+    
+    BeatModelInterface model;   // Gets setBPM() calls, may be null
+    int channels;
+    float frameRate;
+    int minLag;
+    int maxLag;
+    int analyzeEvery;           // Hops between two analyses, about a second
+    
+    float[] onsets = new float[WINDOW];  // Ring buffer of the onset signal
+    float[] envelope = new float[WINDOW];
+    double[] correlation;
+    long hops;
+    int hopFrames;
+    double hopEnergy;
+    double previousLogEnergy;
+    
+    volatile double estimate;   // Smoothed tempo, 0 until the first analysis
+    int reported;
+    
+    // Expects 16-bit signed little-endian PCM in the given format
+    public TempoDetector(AudioFormat format, BeatModelInterface model) {
+        this.model = model;
+        channels = format.getChannels();
+        frameRate = format.getSampleRate();
+        minLag = (int)Math.floor(60 * frameRate / (HOP * MAX_BPM));
+        maxLag = (int)Math.ceil(60 * frameRate / (HOP * MIN_BPM));
+        correlation = new double[2 * maxLag + 2];
+        analyzeEvery = Math.max((int)(frameRate / HOP), 1);
+    }
+    
+    public double getEstimate() {
+        return estimate;
+    }
+    
+    public int getBPM() {
+        return (int)Math.round(estimate);
+    }
+    
+    public void process(byte[] pcm, int length) {
+        int frameSize = 2 * channels;
+        for (int i = 0; i + frameSize <= length; i += frameSize) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += (short)((pcm[i + 2 * c] & 0xff) | (pcm[i + 2 * c + 1] << 8));
+            }
+            double mono = sum / (double)channels;
+            hopEnergy += mono * mono;
+            if (++hopFrames == HOP) {
+                endHop();
+            }
+        }
+    }
+    
+    void endHop() {
+        double logEnergy = Math.log(1 + hopEnergy / HOP);
+        onsets[(int)(hops % WINDOW)] = (float)Math.max(0, logEnergy - previousLogEnergy);
+        previousLogEnergy = logEnergy;
+        hopEnergy = 0;
+        hopFrames = 0;
+        hops++;
+        if (hops >= WINDOW && hops % analyzeEvery == 0) {
+            analyze();
+        }
+    }
+    
+    void analyze() {
+        // Put the onset signal in chronological order, without its mean.
+        // It's also smoothed a little, so a peak that falls between two hops
+        // still lines up with the next one at a fractional lag.
+        double mean = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            envelope[i] = 0.5f * onsets[(int)((hops + i) % WINDOW)]
+                    + 0.25f * onsets[(int)((hops + i + WINDOW - 1) % WINDOW)]
+                    + 0.25f * onsets[(int)((hops + i + 1) % WINDOW)];
+            mean += envelope[i];
+        }
+        mean /= WINDOW;
+        for (int i = 0; i < WINDOW; i++) {
+            envelope[i] -= mean;
+        }
+        
+        for (int lag = minLag - 1; lag < correlation.length && lag < WINDOW; lag++) {
+            double sum = 0;
+            for (int i = lag; i < WINDOW; i++) {
+                sum += envelope[i] * envelope[i - lag];
+            }
+            correlation[lag] = sum / (WINDOW - lag);
+        }
+        
+        int best = minLag;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            if (score(lag) > score(best)) {
+                best = lag;
+            }
+        }
+        if (score(best) <= 0) {
+            return; // Nothing rhythmic to go on
+        }
+        // Evenly spaced hits repeat just as well at twice their spacing. If
+        // the half lag is about as good, the faster tempo is the real one.
+        int half = best / 2;
+        for (int lag = Math.max(half - 1, minLag); lag <= half + 1; lag++) {
+            if (score(lag) >= 0.8 * score(best)) {
+                half = score(lag) > score(half) ? lag : half;
+            }
+        }
+        if (half >= minLag && score(half) >= 0.8 * score(best)) {
+            best = half;
+        }
+        
+        double a = score(best - 1);
+        double b = score(best);
+        double c = score(best + 1);
+        double shift = a - 2 * b + c == 0 ? 0 : 0.5 * (a - c) / (a - 2 * b + c);
+        double bpm = 60 * frameRate / (HOP * (best + shift));
+        
+        if (estimate == 0 || Math.abs(bpm - estimate) > estimate * 0.05) {
+            estimate = bpm;             // A new tempo, jump to it
+        } else {
+            estimate = 0.7 * estimate + 0.3 * bpm;
+        }
+        int rounded = getBPM();
+        if (rounded != reported && model != null) {
+            reported = rounded;
+            model.setBPM(rounded);
+        }
+    }
+    
+    double score(int lag) {
+        double score = correlation[lag];
+        if (2 * lag < correlation.length) {
+            score += 0.5 * correlation[2 * lag];
+        }
+        return score;
+    }
+    
+    /*
+    Feeds a whole stream through the detector, e.g. a WAV file. Returns the
+    final estimate.
+    */
+    public static double detect(AudioInputStream in, BeatModelInterface model) throws Exception {
+        AudioFormat source = in.getFormat();
+        AudioFormat format = new AudioFormat(source.getSampleRate(), 16,
+                source.getChannels(), true, false);
+        AudioInputStream pcm = AudioSystem.getAudioInputStream(format, in);
+        TempoDetector detector = new TempoDetector(format, model);
+        byte[] buffer = new byte[HOP * format.getFrameSize() * 16];
+        int read;
+        while ((read = pcm.read(buffer)) > 0) {
+            detector.process(buffer, read);
+        }
+        pcm.close();
+        return detector.getEstimate();
+    }
+    
+    /*
+    Listens on the default input (microphone, line in) on a daemon thread and
+    keeps the model's tempo in line with what it hears. Returns the line, so
+    the caller can close it to stop listening.
+    */
+    public static TargetDataLine listen(BeatModelInterface model) throws Exception {
+        AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+        TargetDataLine line = AudioSystem.getTargetDataLine(format);
+        line.open(format);
+        line.start();
+        TempoDetector detector = new TempoDetector(format, model);
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[HOP * format.getFrameSize()];
+            while (line.isOpen()) {
+                int read = line.read(buffer, 0, buffer.length);
+                detector.process(buffer, read);
+            }
+        }, "TempoDetector");
+        thread.setDaemon(true);
+        thread.start();
+        return line;
+    }
+}
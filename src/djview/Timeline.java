@@ -0,0 +1,37 @@
+package djview;
+
+/*
+A compiled Pattern: every hit of one bar as flat primitive arrays, so the
+audio thread can walk through it without allocating or boxing anything.
+
+Event i plays sample sampleIds[i] at gains[i], offsets[i] frames after the
+start of the bar. The events are sorted by offset. beatOffsets are the frames
+at which observers get updateBeat(), one per beat of the bar.
+
+A Timeline never changes once it's built, so it can be handed to the audio
+thread as is.
+*/
+public class Timeline {
+    final long[] offsets;
+    final int[] sampleIds;
+    final float[] gains;
+    final long[] beatOffsets;
+    final long barFrames;
+    
+    Timeline(long[] offsets, int[] sampleIds, float[] gains, long[] beatOffsets,
+            long barFrames) {
+        this.offsets = offsets;
+        this.sampleIds = sampleIds;
+        this.gains = gains;
+        this.beatOffsets = beatOffsets;
+        this.barFrames = barFrames;
+    }
+    
+    public int size() {
+        return offsets.length;
+    }
+    
+    public long getBarFrames() {
+        return barFrames;
+    }
+}
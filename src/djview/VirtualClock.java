@@ -0,0 +1,99 @@
+package djview;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+A BeatClock whose time only moves when advanceTo() is called. Threads that
+wait for a deadline are parked until the clock gets there (or someone unparks
+them), so a test can step a beat thread from one deadline to the next:
+
+    clock.awaitWaiting(1);                  // The beat thread is waiting
+    clock.advanceTo(clock.nextDeadline());  // Play the next beat
+
+Waiting never spins, whatever spinNanos is: the time doesn't move while a
+thread spins, so it would spin forever.
+
+A thread's registration is removed by whoever wakes it up, before it
+actually runs again. So once advanceTo() or unpark() returns, awaitWaiting()
+only counts the threads that have gone back to waiting since.
+*/
+public class VirtualClock implements BeatClock {
+    static final long STUCK_MILLIS = 10_000;
+
+    volatile long now;
+    final Map<Thread, Long> waiting = new ConcurrentHashMap<>();
+
+    public VirtualClock(long start) {
+        now = start;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void await(Object blocker, long deadline, long spinNanos) {
+        Thread thread = Thread.currentThread();
+        if (now >= deadline) {
+            return;
+        }
+        waiting.put(thread, deadline);
+        try {
+            while (now < deadline && waiting.containsKey(thread) && !thread.isInterrupted()) {
+                LockSupport.park(blocker);
+            }
+        } finally {
+            waiting.remove(thread);
+        }
+    }
+
+    @Override
+    public void unpark(Thread thread) {
+        waiting.remove(thread);
+        LockSupport.unpark(thread);
+    }
+
+    // Moves the time forward and wakes up everyone whose deadline has come
+    public void advanceTo(long time) {
+        if (time > now) {
+            now = time;
+        }
+        for (Map.Entry<Thread, Long> entry : waiting.entrySet()) {
+            if (entry.getValue() <= now && waiting.remove(entry.getKey(), entry.getValue())) {
+                LockSupport.unpark(entry.getKey());
+            }
+        }
+    }
+
+    // The earliest deadline a thread is waiting for, Long.MAX_VALUE if none
+    public long nextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (long deadline : waiting.values()) {
+            next = Math.min(next, deadline);
+        }
+        return next;
+    }
+
+    public int getWaiting() {
+        return waiting.size();
+    }
+
+    /*
+    Blocks (in real time) until at least `threads` threads are waiting for the
+    clock. Throws if that doesn't happen within STUCK_MILLIS, since then a
+    thread is stuck somewhere else.
+    */
+    public void awaitWaiting(int threads) {
+        long giveUp = System.nanoTime() + STUCK_MILLIS * 1_000_000;
+        while (waiting.size() < threads) {
+            if (System.nanoTime() > giveUp) {
+                throw new IllegalStateException(waiting.size() + " of " + threads
+                        + " threads waiting after " + STUCK_MILLIS + "ms");
+            }
+            Thread.yield();
+        }
+    }
+}
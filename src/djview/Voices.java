@@ -0,0 +1,72 @@
+package djview;
+
+import java.nio.ShortBuffer;
+
+/*
+A fixed number of voices that play samples from a SampleBank on top of each
+other, mixed into 16-bit little-endian PCM. Used by the StreamingEngine and
+the OfflineRenderer.
+
+The voices are kept in parallel arrays, so triggering and mixing allocate
+nothing. When all voices are busy, the one started longest ago is reused.
+*/
+public class Voices {
+    SampleBank bank;
+    ShortBuffer[] data;
+    int[] channels;
+    int[] frames;
+    int[] position;
+    float[] gain;
+    int next;
+    
+    public Voices(SampleBank bank, int count) {
+        this.bank = bank;
+        data = new ShortBuffer[count];
+        channels = new int[count];
+        frames = new int[count];
+        position = new int[count];
+        gain = new float[count];
+    }
+    
+    // Silences all voices
+    public void reset() {
+        for (int v = 0; v < frames.length; v++) {
+            frames[v] = 0;
+            position[v] = 0;
+        }
+    }
+    
+    public void trigger(int id, float gain) {
+        int v = next;
+        next = (v + 1) % frames.length;
+        data[v] = bank.get(id);
+        channels[v] = bank.getFormat(id).getChannels();
+        frames[v] = data[v].limit() / channels[v];
+        position[v] = 0;
+        this.gain[v] = gain;
+    }
+    
+    // Mixes one frame of all playing voices into out at byte b, returns the
+    // byte after it
+    public int mix(byte[] out, int b, int outChannels) {
+        for (int c = 0; c < outChannels; c++) {
+            float mixed = 0;
+            for (int v = 0; v < frames.length; v++) {
+                if (position[v] < frames[v]) {
+                    // A mono sample is played on all channels
+                    int channel = Math.min(c, channels[v] - 1);
+                    mixed += data[v].get(position[v] * channels[v] + channel) * gain[v];
+                }
+            }
+            short s = (short)Math.max(Short.MIN_VALUE, Math.min(mixed, Short.MAX_VALUE));
+            out[b++] = (byte)s;
+            out[b++] = (byte)(s >> 8);
+        }
+        for (int v = 0; v < frames.length; v++) {
+            if (position[v] < frames[v]) {
+                position[v]++;
+            }
+        }
+        return b;
+    }
+}